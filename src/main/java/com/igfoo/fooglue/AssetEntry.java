@@ -0,0 +1,149 @@
+package com.igfoo.fooglue;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The immutable, compiled assets for a single entry in a configuration file,
+ * or for the global configuration. Entries are compiled once when their config
+ * is loaded and are never modified, they are replaced when a config reloads.
+ * When bundling, the scripts and links rendered are the bundles, and the
+ * compiled scripts and links they were bundled from are kept as the sources,
+ * to be reused and bundled again when the config reloads.
+ */
+final class AssetEntry {
+
+  private final String title;
+  private final TagTemplate[] metas;
+  private final TagTemplate[] scripts;
+  private final TagTemplate[] links;
+  private final TagTemplate[] sourceScripts;
+  private final TagTemplate[] sourceLinks;
+
+  AssetEntry(String title, TagTemplate[] metas, TagTemplate[] scripts,
+    TagTemplate[] links) {
+    this.title = title;
+    this.metas = (metas != null) ? metas : TagTemplate.EMPTY;
+    this.scripts = (scripts != null) ? scripts : TagTemplate.EMPTY;
+    this.links = (links != null) ? links : TagTemplate.EMPTY;
+    this.sourceScripts = this.scripts;
+    this.sourceLinks = this.links;
+  }
+
+  private AssetEntry(AssetEntry source, TagTemplate[] scripts,
+    TagTemplate[] links) {
+    this.title = source.title;
+    this.metas = source.metas;
+    this.scripts = scripts;
+    this.links = links;
+    this.sourceScripts = source.sourceScripts;
+    this.sourceLinks = source.sourceLinks;
+  }
+
+  /**
+   * Returns an entry rendering the bundled scripts and links in place of the
+   * source scripts and links of this entry.
+   *
+   * @param bundledScripts The scripts bundled from the source scripts.
+   * @param bundledLinks The links bundled from the source links.
+   *
+   * @return This entry if it already renders the same bundles, else a new
+   * entry with the same sources.
+   */
+  AssetEntry withBundles(TagTemplate[] bundledScripts,
+    TagTemplate[] bundledLinks) {
+    if (Arrays.equals(scripts, bundledScripts)
+      && Arrays.equals(links, bundledLinks)) {
+      return this;
+    }
+    return new AssetEntry(this, bundledScripts, bundledLinks);
+  }
+
+  /**
+   * Returns the unresolved title or null if the entry doesn't have a title.
+   */
+  String getTitle() {
+    return title;
+  }
+
+  TagTemplate[] getMetas() {
+    return metas;
+  }
+
+  TagTemplate[] getScripts() {
+    return scripts;
+  }
+
+  TagTemplate[] getLinks() {
+    return links;
+  }
+
+  /**
+   * Returns the compiled scripts, before any bundling.
+   */
+  TagTemplate[] getSourceScripts() {
+    return sourceScripts;
+  }
+
+  /**
+   * Returns the compiled links, before any bundling.
+   */
+  TagTemplate[] getSourceLinks() {
+    return sourceLinks;
+  }
+
+  /**
+   * Returns the tags of a single FooGlueConstants type, TYPE_META, TYPE_SCRIPT,
+   * or TYPE_LINK.
+   */
+  TagTemplate[] getTemplates(int type) {
+    switch (type) {
+      case FooGlueConstants.TYPE_META:
+        return metas;
+      case FooGlueConstants.TYPE_SCRIPT:
+        return scripts;
+      case FooGlueConstants.TYPE_LINK:
+        return links;
+      default:
+        return TagTemplate.EMPTY;
+    }
+  }
+
+  boolean isEmpty() {
+    return title == null && metas.length == 0 && scripts.length == 0
+      && links.length == 0;
+  }
+
+  /**
+   * Returns the FooGlueConstants type flags of the asset types that differ
+   * between this entry and the other entry. All types differ from a null
+   * entry.
+   *
+   * @param other The entry to compare against, can be null.
+   *
+   * @return The type flags of the changed types, 0 if nothing changed.
+   */
+  int diff(AssetEntry other) {
+    if (other == this) {
+      return 0;
+    }
+    if (other == null) {
+      return FooGlueConstants.TYPE_ALL;
+    }
+    int changed = 0;
+    if (!StringUtils.equals(title, other.title)) {
+      changed |= FooGlueConstants.TYPE_TITLE;
+    }
+    if (!Arrays.equals(metas, other.metas)) {
+      changed |= FooGlueConstants.TYPE_META;
+    }
+    if (!Arrays.equals(links, other.links)) {
+      changed |= FooGlueConstants.TYPE_LINK;
+    }
+    if (!Arrays.equals(scripts, other.scripts)) {
+      changed |= FooGlueConstants.TYPE_SCRIPT;
+    }
+    return changed;
+  }
+}
@@ -0,0 +1,396 @@
+package com.igfoo.fooglue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * <p>An immutable generation of the loaded configuration, all compiled asset
+ * entries, the global entry and the entries by id, along with everything
+ * needed to reload it, the aliases, which config each id came from, which
+ * configs and ids use each asset file, and the raw definition of each entry.</p>
+ *
+ * <p>Snapshots are never modified once created. Reloading creates a Builder
+ * from the current snapshot, loads the changed configs into the builder off to
+ * the side, and builds a new snapshot which is then published with a single
+ * volatile write. If loading fails the builder is thrown away and the current
+ * snapshot stays live. Readers load the current snapshot once and see a
+ * consistent set of entries for the entire render, without locking.</p>
+ */
+final class AssetSnapshot {
+
+  static final AssetSnapshot EMPTY = new AssetSnapshot(null,
+    Collections.<String, AssetEntry> emptyMap(),
+    Collections.<String, String> emptyMap(), null, false,
+    Collections.<String, String> emptyMap(), Collections.<String> emptySet(),
+    Collections.<String, Set<String>> emptyMap(),
+    Collections.<String, Set<String>> emptyMap(),
+    Collections.<String, JsonNode> emptyMap(), BundlePlan.EMPTY,
+    BundlePlan.EMPTY);
+
+  private final AssetEntry global;
+  private final Map<String, AssetEntry> entries;
+  private final Map<String, String> aliases;
+  private final JsonNode aliasesDefinition;
+  private final boolean aliasesLoaded;
+  private final Map<String, String> idToConfig;
+  private final Set<String> configs;
+  private final Map<String, Set<String>> assetsToConfigs;
+  private final Map<String, Set<String>> assetsToIds;
+  private final Map<String, JsonNode> definitions;
+  private final BundlePlan scriptBundles;
+  private final BundlePlan linkBundles;
+
+  private AssetSnapshot(AssetEntry global, Map<String, AssetEntry> entries,
+    Map<String, String> aliases, JsonNode aliasesDefinition,
+    boolean aliasesLoaded, Map<String, String> idToConfig, Set<String> configs,
+    Map<String, Set<String>> assetsToConfigs,
+    Map<String, Set<String>> assetsToIds, Map<String, JsonNode> definitions,
+    BundlePlan scriptBundles, BundlePlan linkBundles) {
+    this.global = global;
+    this.entries = entries;
+    this.aliases = aliases;
+    this.aliasesDefinition = aliasesDefinition;
+    this.aliasesLoaded = aliasesLoaded;
+    this.idToConfig = idToConfig;
+    this.configs = configs;
+    this.assetsToConfigs = assetsToConfigs;
+    this.assetsToIds = assetsToIds;
+    this.definitions = definitions;
+    this.scriptBundles = scriptBundles;
+    this.linkBundles = linkBundles;
+  }
+
+  /**
+   * Returns an unmodifiable deep copy of a map of sets.
+   */
+  private static Map<String, Set<String>> freeze(
+    Map<String, Set<String>> mappings) {
+    Map<String, Set<String>> frozen = new HashMap<String, Set<String>>();
+    for (Entry<String, Set<String>> mapping : mappings.entrySet()) {
+      frozen.put(mapping.getKey(),
+        Collections.unmodifiableSet(new LinkedHashSet<String>(mapping
+          .getValue())));
+    }
+    return Collections.unmodifiableMap(frozen);
+  }
+
+  /**
+   * Returns the global entry or null if there is no global configuration.
+   */
+  AssetEntry getGlobal() {
+    return global;
+  }
+
+  /**
+   * Returns the entry for the id or null if the id isn't configured.
+   */
+  AssetEntry getEntry(String id) {
+    return entries.get(id);
+  }
+
+  Map<String, AssetEntry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns true if the asset file is used by any config.
+   */
+  boolean isAsset(String assetPath) {
+    return assetsToConfigs.containsKey(assetPath);
+  }
+
+  /**
+   * Returns the configs that use the asset file.
+   */
+  Set<String> getAssetConfigs(String assetPath) {
+    Set<String> assetConfigs = assetsToConfigs.get(assetPath);
+    return (assetConfigs != null) ? assetConfigs : Collections
+      .<String> emptySet();
+  }
+
+  /**
+   * Returns the ids that use the asset file, FooGlueConstants.GLOBAL for the
+   * global entry.
+   */
+  Set<String> getAssetIds(String assetPath) {
+    Set<String> assetIds = assetsToIds.get(assetPath);
+    return (assetIds != null) ? assetIds : Collections.<String> emptySet();
+  }
+
+  /**
+   * Returns the loaded config files.
+   */
+  Set<String> getConfigs() {
+    return configs;
+  }
+
+  /**
+   * Returns the shared bundle plan of the stylesheets or scripts.
+   */
+  BundlePlan getBundlePlan(boolean isStyleSheet) {
+    return isStyleSheet ? linkBundles : scriptBundles;
+  }
+
+  /**
+   * Returns a builder for the next generation. An incremental builder starts
+   * with everything in this snapshot and only the changed configs are loaded
+   * into it. A full builder starts empty and every config is loaded into it,
+   * dropping anything that is no longer configured. Both can reuse the
+   * compiled entries and definitions of this snapshot.
+   *
+   * @param full True to start empty for a full reload.
+   *
+   * @return A builder for the next generation.
+   */
+  Builder edit(boolean full) {
+    return new Builder(this, full);
+  }
+
+  /**
+   * Collects a new generation off to the side while the current snapshot
+   * stays live. Only used by a single loading thread.
+   */
+  static final class Builder {
+
+    private final AssetSnapshot base;
+    private final boolean full;
+    private AssetEntry global;
+    private final Map<String, AssetEntry> entries;
+    private final Map<String, String> aliases;
+    private JsonNode aliasesDefinition;
+    private boolean aliasesLoaded;
+    private final Map<String, String> idToConfig;
+    private final Set<String> configs;
+    private final Map<String, Set<String>> assetsToConfigs = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> assetsToIds = new HashMap<String, Set<String>>();
+    private final Map<String, JsonNode> definitions;
+    private final List<String> errors = new ArrayList<String>();
+    private BundlePlan scriptBundles;
+    private BundlePlan linkBundles;
+
+    private Builder(AssetSnapshot base, boolean full) {
+      this.base = base;
+      this.full = full;
+      this.definitions = new HashMap<String, JsonNode>(base.definitions);
+      this.aliasesDefinition = base.aliasesDefinition;
+      this.aliasesLoaded = base.aliasesLoaded;
+      this.scriptBundles = base.scriptBundles;
+      this.linkBundles = base.linkBundles;
+      if (full) {
+        this.entries = new HashMap<String, AssetEntry>();
+        this.aliases = new HashMap<String, String>();
+        this.idToConfig = new HashMap<String, String>();
+        this.configs = new LinkedHashSet<String>();
+      }
+      else {
+        this.global = base.global;
+        this.entries = new HashMap<String, AssetEntry>(base.entries);
+        this.aliases = new HashMap<String, String>(base.aliases);
+        this.idToConfig = new HashMap<String, String>(base.idToConfig);
+        this.configs = new LinkedHashSet<String>(base.configs);
+        for (Entry<String, Set<String>> mapping : base.assetsToConfigs
+          .entrySet()) {
+          assetsToConfigs.put(mapping.getKey(), new LinkedHashSet<String>(
+            mapping.getValue()));
+        }
+        for (Entry<String, Set<String>> mapping : base.assetsToIds.entrySet()) {
+          assetsToIds.put(mapping.getKey(),
+            new LinkedHashSet<String>(mapping.getValue()));
+        }
+      }
+    }
+
+    /**
+     * Returns the snapshot this builder started from.
+     */
+    AssetSnapshot getBase() {
+      return base;
+    }
+
+    /**
+     * Returns true if the builder started empty for a full reload, without
+     * the entries or asset mappings of the base.
+     */
+    boolean isFull() {
+      return full;
+    }
+
+    AssetEntry getGlobal() {
+      return global;
+    }
+
+    void setGlobal(AssetEntry global) {
+      this.global = global;
+    }
+
+    void putEntry(String id, AssetEntry entry) {
+      entries.put(id, entry);
+    }
+
+    /**
+     * Returns the entries by id in the generation being built.
+     */
+    Map<String, AssetEntry> getEntries() {
+      return entries;
+    }
+
+    /**
+     * Returns the entry for the id in the generation being built.
+     */
+    AssetEntry getEntry(String id) {
+      return entries.get(id);
+    }
+
+    /**
+     * Returns the alias value or null if the alias doesn't exist.
+     */
+    String getAlias(String aliasKey) {
+      return aliases.get(aliasKey);
+    }
+
+    /**
+     * Sets the aliases from the global config, which may not define any. If
+     * the aliases are defined differently than the last time the global config
+     * was loaded, every entry has to be compiled again.
+     */
+    void setAliases(JsonNode definition, Map<String, String> newAliases) {
+      if (!aliasesLoaded || !ObjectUtils.equals(aliasesDefinition, definition)) {
+        definitions.clear();
+        aliasesDefinition = definition;
+        aliasesLoaded = true;
+      }
+      aliases.clear();
+      aliases.putAll(newAliases);
+    }
+
+    /**
+     * Links the id to the config it is defined in, returning the config that
+     * previously defined the id, if any.
+     */
+    String putIdConfig(String id, String configPath) {
+      return idToConfig.put(id, configPath);
+    }
+
+    void addConfig(String configPath) {
+      configs.add(configPath);
+    }
+
+    /**
+     * Maps the asset file to the config and ids that use it.
+     */
+    void addAsset(String assetPath, String configPath, Collection<String> ids) {
+      Set<String> assetConfigs = assetsToConfigs.get(assetPath);
+      if (assetConfigs == null) {
+        assetConfigs = new LinkedHashSet<String>();
+        assetsToConfigs.put(assetPath, assetConfigs);
+      }
+      assetConfigs.add(configPath);
+      Set<String> assetIds = assetsToIds.get(assetPath);
+      if (assetIds == null) {
+        assetIds = new LinkedHashSet<String>();
+        assetsToIds.put(assetPath, assetIds);
+      }
+      assetIds.addAll(ids);
+    }
+
+    /**
+     * Removes an asset file that no longer exists.
+     */
+    void removeAsset(String assetPath) {
+      assetsToConfigs.remove(assetPath);
+      assetsToIds.remove(assetPath);
+    }
+
+    /**
+     * Removes a config that no longer exists along with the entries of every
+     * id defined in it.
+     *
+     * @return The removed ids.
+     */
+    Set<String> removeConfig(String configPath) {
+      Set<String> removedIds = new LinkedHashSet<String>();
+      configs.remove(configPath);
+      Iterator<Entry<String, String>> idIt = idToConfig.entrySet().iterator();
+      while (idIt.hasNext()) {
+        Entry<String, String> idEntry = idIt.next();
+        if (configPath.equals(idEntry.getValue())) {
+          removedIds.add(idEntry.getKey());
+          idIt.remove();
+        }
+      }
+      entries.keySet().removeAll(removedIds);
+      definitions.keySet().removeAll(removedIds);
+      return removedIds;
+    }
+
+    JsonNode getDefinition(String key) {
+      return definitions.get(key);
+    }
+
+    void putDefinition(String key, JsonNode definition) {
+      definitions.put(key, definition);
+    }
+
+    /**
+     * Forgets the definitions of the ids so their entries are compiled again
+     * instead of being reused, used when the asset files they use change.
+     */
+    void removeDefinitions(Collection<String> keys) {
+      definitions.keySet().removeAll(keys);
+    }
+
+    /**
+     * Records a config that failed to load. A generation with errors is not
+     * valid.
+     */
+    void addError(String configPath) {
+      errors.add(configPath);
+    }
+
+    /**
+     * Sets the shared bundle plan of the stylesheets or scripts.
+     */
+    void setBundlePlan(boolean isStyleSheet, BundlePlan plan) {
+      if (isStyleSheet) {
+        linkBundles = plan;
+      }
+      else {
+        scriptBundles = plan;
+      }
+    }
+
+    List<String> getErrors() {
+      return errors;
+    }
+
+    boolean isValid() {
+      return errors.isEmpty();
+    }
+
+    /**
+     * Builds the immutable snapshot.
+     */
+    AssetSnapshot build() {
+      return new AssetSnapshot(global, Collections
+        .unmodifiableMap(new HashMap<String, AssetEntry>(entries)),
+        Collections.unmodifiableMap(new HashMap<String, String>(aliases)),
+        aliasesDefinition, aliasesLoaded, Collections
+          .unmodifiableMap(new HashMap<String, String>(idToConfig)),
+        Collections.unmodifiableSet(new LinkedHashSet<String>(configs)),
+        freeze(assetsToConfigs), freeze(assetsToIds), Collections
+          .unmodifiableMap(new HashMap<String, JsonNode>(definitions)),
+        scriptBundles, linkBundles);
+    }
+  }
+}
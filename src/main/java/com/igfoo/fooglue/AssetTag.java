@@ -0,0 +1,88 @@
+package com.igfoo.fooglue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An immutable, compiled script, link, or meta tag. Attribute names and values
+ * are held in parallel arrays in configuration order, after aliases have been
+ * resolved and assets have been cached.
+ */
+final class AssetTag {
+
+  static final AssetTag[] EMPTY = new AssetTag[0];
+
+  private final String[] names;
+  private final String[] values;
+  private final int hash;
+
+  private AssetTag(String[] names, String[] values) {
+    this.names = names;
+    this.values = values;
+    this.hash = 31 * Arrays.hashCode(names) + Arrays.hashCode(values);
+  }
+
+  /**
+   * Compiles the ordered attributes of a tag into an AssetTag.
+   * 
+   * @param attributes The tag attributes, in order.
+   * 
+   * @return The compiled tag.
+   */
+  static AssetTag fromAttributes(Map<String, String> attributes) {
+    int numAttrs = attributes.size();
+    String[] names = new String[numAttrs];
+    String[] values = new String[numAttrs];
+    int index = 0;
+    for (Entry<String, String> attribute : attributes.entrySet()) {
+      names[index] = attribute.getKey();
+      values[index] = attribute.getValue();
+      index++;
+    }
+    return new AssetTag(names, values);
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  String getName(int index) {
+    return names[index];
+  }
+
+  String getValue(int index) {
+    return values[index];
+  }
+
+  /**
+   * Returns the value of the named attribute or null if the tag doesn't have
+   * the attribute.
+   */
+  String get(String name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return values[i];
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof AssetTag)) {
+      return false;
+    }
+    AssetTag other = (AssetTag)obj;
+    return hash == other.hash && Arrays.equals(names, other.names)
+      && Arrays.equals(values, other.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -0,0 +1,64 @@
+package com.igfoo.fooglue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The shared bundles of a generation for one asset type, scripts or
+ * stylesheets. Holds the number of ids using each cached asset, the assets
+ * used by more ids than the shared bundle threshold, and the shared bundle tag
+ * each of those assets is bundled into.
+ *
+ * <p>Plans are immutable and carried from one generation to the next, so a
+ * reload only counts the ids whose assets changed and only makes the shared
+ * bundles again when the shared assets changed.</p>
+ */
+final class BundlePlan {
+
+  // the threshold of the empty plan never matches, everything is counted
+  static final BundlePlan EMPTY = new BundlePlan(-1,
+    Collections.<String, Integer> emptyMap(), Collections.<String> emptySet(),
+    Collections.<String, TagTemplate> emptyMap());
+
+  private final int threshold;
+  private final Map<String, Integer> counts;
+  private final Set<String> sharedPaths;
+  private final Map<String, TagTemplate> sharedTags;
+
+  BundlePlan(int threshold, Map<String, Integer> counts,
+    Set<String> sharedPaths, Map<String, TagTemplate> sharedTags) {
+    this.threshold = threshold;
+    this.counts = counts;
+    this.sharedPaths = sharedPaths;
+    this.sharedTags = sharedTags;
+  }
+
+  /**
+   * Returns the shared bundle threshold the plan was made with.
+   */
+  int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Returns the number of ids using each asset path.
+   */
+  Map<String, Integer> getCounts() {
+    return counts;
+  }
+
+  /**
+   * Returns the paths of the assets used by more ids than the threshold.
+   */
+  Set<String> getSharedPaths() {
+    return sharedPaths;
+  }
+
+  /**
+   * Returns the shared bundle tag by the path of each bundled shared asset.
+   */
+  Map<String, TagTemplate> getSharedTags() {
+    return sharedTags;
+  }
+}
@@ -0,0 +1,189 @@
+package com.igfoo.fooglue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * <p>Writes files into the cache directory so that they are safe to share
+ * between threads, and between servers using the same cache directory on a
+ * shared file system.</p>
+ *
+ * <p>Files are written to a temp file in the same directory and renamed into
+ * place, so a reader either sees no file or the whole file, never a partially
+ * written one. Making a file can be locked, in this process with a lock per
+ * file and across processes with a file lock on a lock file next to it, so
+ * that only one server makes a file and the others wait and reuse it.</p>
+ */
+final class CacheFiles {
+
+  private static final String LOCK_EXT = ".lock";
+  private static final String TEMP_EXT = ".tmp";
+
+  private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<String, ReentrantLock>();
+
+  /**
+   * A held lock on a cache file, which must be released.
+   */
+  final class Lock {
+
+    private final ReentrantLock local;
+    private final RandomAccessFile lockFile;
+    private final FileLock fileLock;
+
+    private Lock(ReentrantLock local, RandomAccessFile lockFile,
+      FileLock fileLock) {
+      this.local = local;
+      this.lockFile = lockFile;
+      this.fileLock = fileLock;
+    }
+
+    /**
+     * Releases the lock.
+     */
+    void release() {
+      try {
+        if (fileLock != null) {
+          fileLock.release();
+        }
+        if (lockFile != null) {
+          lockFile.close();
+        }
+      }
+      catch (IOException e) {
+        // ignore errors releasing, closing the file releases the lock
+      }
+      finally {
+        local.unlock();
+      }
+    }
+  }
+
+  /**
+   * Locks making the cache file, waiting for any other thread or process that
+   * is making it. Callers should check if the file exists once they hold the
+   * lock, it may have been made while they waited. If the file system doesn't
+   * support file locks only other threads are locked out.
+   *
+   * @param cacheFile The cache file to lock.
+   *
+   * @return The held lock, which must be released.
+   */
+  Lock lock(File cacheFile) {
+
+    // file locks are held by the process, threads have to lock each other out
+    String path = cacheFile.getPath();
+    ReentrantLock local = locks.get(path);
+    if (local == null) {
+      ReentrantLock created = new ReentrantLock();
+      local = locks.putIfAbsent(path, created);
+      if (local == null) {
+        local = created;
+      }
+    }
+    local.lock();
+
+    RandomAccessFile lockFile = null;
+    FileLock fileLock = null;
+    try {
+      File parent = cacheFile.getParentFile();
+      if (parent != null) {
+        FileUtils.forceMkdir(parent);
+      }
+      lockFile = new RandomAccessFile(path + LOCK_EXT, "rw");
+      FileChannel channel = lockFile.getChannel();
+      fileLock = channel.lock();
+    }
+    catch (IOException e) {
+      // file locks aren't supported, only this process is locked out
+      if (lockFile != null) {
+        try {
+          lockFile.close();
+        }
+        catch (IOException ce) {
+          // ignore errors closing
+        }
+        lockFile = null;
+      }
+    }
+    return new Lock(local, lockFile, fileLock);
+  }
+
+  /**
+   * Writes the bytes to a temp file next to the target and renames it into
+   * place, replacing the target if it exists.
+   *
+   * @param target The file to write.
+   * @param bytes The contents.
+   *
+   * @throws IOException If the file can't be written.
+   */
+  void write(File target, byte[] bytes)
+    throws IOException {
+    File temp = createTemp(target);
+    try {
+      FileUtils.writeByteArrayToFile(temp, bytes);
+      moveIntoPlace(temp, target);
+    }
+    finally {
+      FileUtils.deleteQuietly(temp);
+    }
+  }
+
+  /**
+   * Copies the source to a temp file next to the target and renames it into
+   * place, replacing the target if it exists.
+   *
+   * @param source The file to copy.
+   * @param target The file to write.
+   *
+   * @throws IOException If the file can't be copied.
+   */
+  void copy(File source, File target)
+    throws IOException {
+    File temp = createTemp(target);
+    try {
+      FileUtils.copyFile(source, temp);
+      moveIntoPlace(temp, target);
+    }
+    finally {
+      FileUtils.deleteQuietly(temp);
+    }
+  }
+
+  /**
+   * Returns a new, unique, temp file in the directory of the target.
+   */
+  private static File createTemp(File target)
+    throws IOException {
+    File parent = target.getAbsoluteFile().getParentFile();
+    FileUtils.forceMkdir(parent);
+    return File.createTempFile(target.getName() + ".", TEMP_EXT, parent);
+  }
+
+  /**
+   * Renames the temp file to the target, atomically if the file system
+   * supports it.
+   */
+  private static void moveIntoPlace(File temp, File target)
+    throws IOException {
+    try {
+      Files.move(temp.toPath(), target.toPath(),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp.toPath(), target.toPath(),
+        StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
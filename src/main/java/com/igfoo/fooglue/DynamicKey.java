@@ -0,0 +1,42 @@
+package com.igfoo.fooglue;
+
+import java.util.Locale;
+
+/**
+ * The key for a rendered dynamic asset in the dynamic render cache. The key is
+ * the asset type, an immutable copy of the asset content, either an AssetTag
+ * or a title string, and the locale.
+ */
+final class DynamicKey {
+
+  private final int type;
+  private final Object content;
+  private final Locale locale;
+  private final int hash;
+
+  DynamicKey(int type, Object content, Locale locale) {
+    this.type = type;
+    this.content = content;
+    this.locale = locale;
+    int result = 31 * type + content.hashCode();
+    this.hash = 31 * result + locale.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof DynamicKey)) {
+      return false;
+    }
+    DynamicKey other = (DynamicKey)obj;
+    return hash == other.hash && type == other.type
+      && content.equals(other.content) && locale.equals(other.locale);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -0,0 +1,265 @@
+package com.igfoo.fooglue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * <p>Remembers the content hash of asset files by path, size, and last
+ * modified time, so unchanged files aren't read and hashed again every time
+ * the configs using them are reloaded.</p>
+ *
+ * <p>Files are hashed with MD5, streamed through a file channel into a reused
+ * direct buffer instead of being read into the heap whole. MD5 is used for
+ * naming cached files, not for security, where a collision between versions of
+ * an asset is what matters.</p>
+ *
+ * <p>Fingerprints, along with the cached file made from each asset, can be
+ * written to a manifest in the cache directory and read back on startup, so a
+ * restart doesn't hash or minify unchanged assets again. A manifest written
+ * with different cache settings, such as minifying or not, is ignored.</p>
+ */
+final class FingerprintCache {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final int MANIFEST_VERSION = 1;
+
+  private final ConcurrentMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<String, Fingerprint>();
+
+  // direct buffers are expensive to create, one is kept per loading thread
+  private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+  };
+
+  /**
+   * The hash of a file at a given size and last modified time, and the cached
+   * file made from it, relative to the cache directory, if any.
+   */
+  private static final class Fingerprint {
+
+    private final long size;
+    private final long lastModified;
+    private final String hash;
+    private final String cached;
+
+    Fingerprint(long size, long lastModified, String hash, String cached) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+      this.cached = cached;
+    }
+  }
+
+  /**
+   * Returns the hex content hash of the file, only reading the file if it is
+   * new or its size or last modified time changed.
+   *
+   * @param file The file to hash.
+   *
+   * @return The hex content hash.
+   *
+   * @throws IOException If the file can't be read.
+   */
+  String getHash(File file)
+    throws IOException {
+
+    String path = file.getPath();
+    long size = file.length();
+    long lastModified = file.lastModified();
+    Fingerprint fingerprint = fingerprints.get(path);
+    if (fingerprint != null && fingerprint.size == size
+      && fingerprint.lastModified == lastModified) {
+      return fingerprint.hash;
+    }
+
+    String hash = hash(file);
+    fingerprints.put(path, new Fingerprint(size, lastModified, hash, null));
+    return hash;
+  }
+
+  /**
+   * Records the cached file made from the file at its current fingerprint.
+   *
+   * @param file The original file.
+   * @param cached The cached file relative to the cache directory.
+   */
+  void setCached(File file, String cached) {
+    Fingerprint fingerprint = fingerprints.get(file.getPath());
+    if (fingerprint != null) {
+      fingerprints.put(file.getPath(), new Fingerprint(fingerprint.size,
+        fingerprint.lastModified, fingerprint.hash, cached));
+    }
+  }
+
+  /**
+   * Writes the fingerprints to a manifest file.
+   *
+   * @param manifest The manifest file.
+   * @param settings The cache settings the cached files were made with.
+   * @param cacheFiles Writes the manifest into place.
+   *
+   * @throws IOException If the manifest can't be written.
+   */
+  void writeManifest(File manifest, String settings, CacheFiles cacheFiles)
+    throws IOException {
+
+    ObjectNode root = JSONUtils.getMapper().createObjectNode();
+    root.put("version", MANIFEST_VERSION);
+    root.put("settings", settings);
+    ArrayNode assets = root.putArray("assets");
+    for (Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+      Fingerprint fingerprint = entry.getValue();
+      ObjectNode asset = assets.addObject();
+      asset.put("path", entry.getKey());
+      asset.put("size", fingerprint.size);
+      asset.put("lastModified", fingerprint.lastModified);
+      asset.put("hash", fingerprint.hash);
+      if (fingerprint.cached != null) {
+        asset.put("cached", fingerprint.cached);
+      }
+    }
+    cacheFiles.write(manifest, JSONUtils.getMapper().writeValueAsBytes(root));
+  }
+
+  /**
+   * Reads the fingerprints from a manifest file written with the same cache
+   * settings. Only fingerprints whose file still has the same size and last
+   * modified time, and whose cached file still exists, are kept.
+   *
+   * @param manifest The manifest file.
+   * @param settings The current cache settings.
+   * @param cacheRoot The cache directory.
+   *
+   * @return The number of fingerprints read, or -1 if the manifest was written
+   * with different settings and the cached files can't be trusted.
+   *
+   * @throws IOException If the manifest can't be read.
+   */
+  int readManifest(File manifest, String settings, File cacheRoot)
+    throws IOException {
+
+    JsonNode root = JSONUtils.parseJson(manifest);
+    if (JSONUtils.getIntValue(root, "version", 0) != MANIFEST_VERSION
+      || !settings.equals(JSONUtils.getStringValue(root, "settings"))) {
+      return -1;
+    }
+
+    int read = 0;
+    JsonNode assets = root.get("assets");
+    if (assets != null) {
+      for (JsonNode asset : assets) {
+        String path = JSONUtils.getStringValue(asset, "path");
+        String cached = JSONUtils.getStringValue(asset, "cached");
+        File file = new File(path);
+        long size = JSONUtils.getLongValue(asset, "size", -1);
+        long lastModified = JSONUtils.getLongValue(asset, "lastModified", -1);
+        if (file.length() == size && file.lastModified() == lastModified
+          && (cached == null || new File(cacheRoot, cached).exists())) {
+          fingerprints.put(path, new Fingerprint(size, lastModified,
+            JSONUtils.getStringValue(asset, "hash"), cached));
+          read++;
+        }
+      }
+    }
+    return read;
+  }
+
+  /**
+   * Returns the hex hash of a string, such as the names of the files in a
+   * bundle.
+   *
+   * @param value The string to hash.
+   *
+   * @return The hex hash.
+   *
+   * @throws IOException If hashing isn't available.
+   */
+  static String hash(String value)
+    throws IOException {
+    MessageDigest digest = newDigest();
+    digest.update(value.getBytes("UTF-8"));
+    return toHex(digest);
+  }
+
+  /**
+   * Streams the file through the digest.
+   */
+  private String hash(File file)
+    throws IOException {
+
+    MessageDigest digest = newDigest();
+
+    ByteBuffer buffer = buffers.get();
+    FileInputStream input = new FileInputStream(file);
+    try {
+      FileChannel channel = input.getChannel();
+      buffer.clear();
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+      }
+    }
+    finally {
+      input.close();
+    }
+
+    return toHex(digest);
+  }
+
+  /**
+   * Returns a new MD5 digest.
+   */
+  private static MessageDigest newDigest()
+    throws IOException {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException("MD5 not available", e);
+    }
+  }
+
+  /**
+   * Returns the digest as hex.
+   */
+  private static String toHex(MessageDigest digest) {
+    byte[] hashBytes = digest.digest();
+    char[] hex = new char[hashBytes.length * 2];
+    for (int i = 0; i < hashBytes.length; i++) {
+      hex[i * 2] = HEX[(hashBytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[hashBytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Forgets the file, used when it no longer exists.
+   */
+  void remove(File file) {
+    fingerprints.remove(file.getPath());
+  }
+
+  int size() {
+    return fingerprints.size();
+  }
+
+  void clear() {
+    fingerprints.clear();
+  }
+}
@@ -0,0 +1,302 @@
+package com.igfoo.fooglue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * <p>Serves the cached scripts and stylesheets from the fooglue cache
+ * directory, so the cache directory doesn't need its own web server config.
+ * Map the servlet to the url of the cache directory, the path after the
+ * mapping is the path of the file in the cache directory.</p>
+ *
+ * <p>The cache directory is the cacheDir init parameter, or if not set, the
+ * cache directory of the fooGlueService bean in the Spring web application
+ * context. Only .js and .css files are served, not the manifest, lock, or temp
+ * files in the cache directory.</p>
+ *
+ * <p>Cached files are named by the hash of their contents and never change, so
+ * they are sent with far future Cache-Control headers and an ETag of their
+ * hash. Requests with a matching If-None-Match get a 304, single byte ranges
+ * get a 206, and clients accepting gzip get the gzipped copy of the file when
+ * there is one. Files are sent with FileChannel.transferTo, which avoids
+ * copying through the heap as far as the servlet output stream allows.</p>
+ */
+public class FooGlueAssetServlet
+  extends HttpServlet {
+
+  private static final long serialVersionUID = 1L;
+
+  // a year, the longest max age caches are expected to honor
+  private static final long MAX_AGE = 365L * 24 * 60 * 60;
+
+  // cached files, bundles, and originals waiting on minification
+  private static final Pattern FINGERPRINTED = Pattern
+    .compile(".*-([0-9a-f]{32})(-src)?\\.(js|css)$");
+  private static final Pattern RANGE = Pattern
+    .compile("^bytes=(\\d*)-(\\d*)$");
+
+  private File cacheRoot;
+  private String cacheRootPath;
+
+  @Override
+  public void init()
+    throws ServletException {
+
+    // use the cache directory of the fooglue service if not set
+    String cacheDir = getInitParameter("cacheDir");
+    if (StringUtils.isBlank(cacheDir)) {
+      WebApplicationContext appContext = WebApplicationContextUtils
+        .getWebApplicationContext(getServletContext());
+      Object service = (appContext != null) ? appContext
+        .getBean("fooGlueService") : null;
+      if (service instanceof FooGlueServiceImpl) {
+        cacheDir = ((FooGlueServiceImpl)service).getCacheDir();
+      }
+    }
+    if (StringUtils.isBlank(cacheDir)) {
+      throw new ServletException("No fooglue cache directory to serve");
+    }
+
+    try {
+      cacheRoot = new File(cacheDir).getCanonicalFile();
+      cacheRootPath = cacheRoot.getPath() + File.separator;
+    }
+    catch (IOException e) {
+      throw new ServletException("Bad fooglue cache directory: " + cacheDir, e);
+    }
+  }
+
+  /**
+   * Returns the requested file if it is a script or stylesheet inside of the
+   * cache directory, else null.
+   */
+  private File getAssetFile(String path)
+    throws IOException {
+
+    if (StringUtils.isBlank(path)
+      || !(path.endsWith(".js") || path.endsWith(".css"))) {
+      return null;
+    }
+
+    // don't allow paths out of the cache directory
+    File file = new File(cacheRoot, path).getCanonicalFile();
+    if (!file.getPath().startsWith(cacheRootPath) || !file.isFile()) {
+      return null;
+    }
+    return file;
+  }
+
+  /**
+   * Returns true if the client accepts gzip content encoding. An explicit gzip
+   * coding takes precedence over the * wildcard, wherever it is in the header.
+   */
+  private static boolean acceptsGzip(HttpServletRequest request) {
+
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    String gzip = null;
+    String wildcard = null;
+    for (String coding : StringUtils.split(acceptEncoding, ",")) {
+      String name = StringUtils.trim(StringUtils.substringBefore(coding, ";"));
+      if (StringUtils.equalsIgnoreCase(name, "gzip")) {
+        gzip = coding;
+      }
+      else if (name.equals("*")) {
+        wildcard = coding;
+      }
+    }
+    String accepted = (gzip != null) ? gzip : wildcard;
+    if (accepted == null) {
+      return false;
+    }
+
+    // gzip is refused with a zero quality
+    String quality = StringUtils.trim(StringUtils.substringAfter(accepted,
+      "q="));
+    return !quality.matches("0(\\.0*)?");
+  }
+
+  /**
+   * Returns true if the If-None-Match header matches the etag.
+   */
+  private static boolean matchesETag(String ifNoneMatch, String etag) {
+    for (String match : StringUtils.split(ifNoneMatch, ",")) {
+      match = StringUtils.removeStart(StringUtils.trim(match), "W/");
+      if (match.equals("*") || match.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses a single byte range header into the first and last byte positions.
+   * 
+   * @param range The Range header.
+   * @param length The length of the file.
+   * 
+   * @return The first and last positions, an empty array if the range can't
+   * be satisfied, or null if the range isn't a single byte range and the whole
+   * file should be sent.
+   */
+  private static long[] parseRange(String range, long length) {
+
+    Matcher rangeMatch = RANGE.matcher(range.trim());
+    if (!rangeMatch.matches()) {
+      return null;
+    }
+    String first = rangeMatch.group(1);
+    String last = rangeMatch.group(2);
+    try {
+      long start = 0;
+      long end = length - 1;
+      if (first.length() > 0) {
+        start = Long.parseLong(first);
+        if (last.length() > 0) {
+          end = Math.min(Long.parseLong(last), length - 1);
+        }
+      }
+      else if (last.length() > 0) {
+        start = Math.max(0, length - Long.parseLong(last));
+      }
+      else {
+        return null;
+      }
+      if (start >= length || start > end) {
+        return new long[0];
+      }
+      return new long[] {
+        start, end
+      };
+    }
+    catch (NumberFormatException e) {
+      // positions too large for any file
+      return new long[0];
+    }
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+    throws ServletException, IOException {
+
+    File file = getAssetFile(request.getPathInfo());
+    if (file == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    // use the gzipped copy if the client accepts it, responses differ by the
+    // accepted encoding whenever there is a gzipped copy
+    File gzipFile = new File(file.getPath() + FooGlueConstants.GZIP_EXT);
+    boolean hasGzip = gzipFile.isFile();
+    boolean useGzip = hasGzip && acceptsGzip(request);
+    File sendFile = useGzip ? gzipFile : file;
+    if (hasGzip) {
+      response.setHeader("Vary", "Accept-Encoding");
+    }
+
+    // fingerprinted files never change, others are checked every time
+    Matcher fingerprint = FINGERPRINTED.matcher(file.getName());
+    String etag = null;
+    if (fingerprint.matches()) {
+      etag = "\"" + fingerprint.group(1) + (useGzip ? "-gz" : "") + "\"";
+      response.setHeader("Cache-Control", "public, max-age=" + MAX_AGE);
+      response.setDateHeader("Expires", System.currentTimeMillis() + MAX_AGE
+        * 1000);
+    }
+    else {
+      etag = "\"" + Long.toHexString(sendFile.length()) + "-"
+        + Long.toHexString(sendFile.lastModified()) + (useGzip ? "-gz" : "")
+        + "\"";
+      response.setHeader("Cache-Control", "no-cache");
+    }
+    response.setHeader("ETag", etag);
+    response.setHeader("Accept-Ranges", "bytes");
+
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && matchesETag(ifNoneMatch, etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    response.setContentType(file.getName().endsWith(".css") ? "text/css"
+      : "text/javascript");
+    if (useGzip) {
+      response.setHeader("Content-Encoding", "gzip");
+    }
+
+    // single byte ranges are sent partially, unless the If-Range doesn't match
+    // the current file, multiple ranges are sent whole
+    long length = sendFile.length();
+    long start = 0;
+    long end = length - 1;
+    String range = request.getHeader("Range");
+    String ifRange = request.getHeader("If-Range");
+    if (range != null && (ifRange == null || ifRange.equals(etag))) {
+      long[] bytes = parseRange(range, length);
+      if (bytes != null && bytes.length == 0) {
+        response.setHeader("Content-Range", "bytes */" + length);
+        response
+          .sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      else if (bytes != null) {
+        start = bytes[0];
+        end = bytes[1];
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader("Content-Range", "bytes " + start + "-" + end + "/"
+          + length);
+      }
+    }
+
+    long count = end - start + 1;
+    response.setHeader("Content-Length", String.valueOf(count));
+    sendFile(sendFile, start, count, response.getOutputStream());
+  }
+
+  /**
+   * Transfers the bytes of the file straight from its channel to the response.
+   */
+  private static void sendFile(File file, long start, long count,
+    ServletOutputStream out)
+    throws IOException {
+
+    FileInputStream input = new FileInputStream(file);
+    try {
+      FileChannel channel = input.getChannel();
+      WritableByteChannel target = Channels.newChannel(out);
+      long position = start;
+      long remaining = count;
+      while (remaining > 0) {
+        long sent = channel.transferTo(position, remaining, target);
+        if (sent <= 0) {
+          break;
+        }
+        position += sent;
+        remaining -= sent;
+      }
+      out.flush();
+    }
+    finally {
+      input.close();
+    }
+  }
+}
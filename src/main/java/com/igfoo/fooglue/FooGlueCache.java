@@ -0,0 +1,346 @@
+package com.igfoo.fooglue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A size bounded, concurrent cache with frequency aware admission.</p>
+ *
+ * <p>Reads are a single ConcurrentHashMap lookup plus an increment in a small
+ * count-min frequency sketch. Once the cache is full, a new entry is only
+ * admitted if it has been requested more often than the oldest entry in the
+ * cache, in which case the oldest entry is evicted. Otherwise the new entry is
+ * rejected and the oldest entry gets another pass through the queue. This is
+ * TinyLFU admission over a FIFO eviction queue. Keys requested once, such as
+ * random ids and locales from bots, never push out frequently used entries.</p>
+ *
+ * <p>Frequencies are periodically halved so that entries which were popular in
+ * the past don't stay in the cache forever. The halving runs on a background
+ * thread, never on a thread reading the cache. Sketch updates are not atomic,
+ * the counts are approximate by design.</p>
+ *
+ * <p>Reads are counted, for the sketch aging and the hit and miss statistics,
+ * in counters striped by thread, so concurrent reads don't contend on shared
+ * atomics. New entries are only added under the eviction lock, so the cache
+ * never grows past its maximum size.</p>
+ *
+ * <p>Values can't be null. Callers that need to cache a missing result should
+ * cache a sentinel value, such as an empty list or empty string.</p>
+ */
+public class FooGlueCache<K, V> {
+
+  private static final int[] SEEDS = {
+    0x97CB3127, 0xB1A8DF4B, 0xC2B2AE35, 0x85EBCA6B
+  };
+  private static final int MAX_FREQUENCY = 15;
+
+  // the sum of the striped additions is only checked every so many additions
+  private static final int ADDITIONS_CHECK_MASK = 63;
+
+  // ages the sketches of every cache off the threads reading them
+  private static final Executor AGING = Executors
+    .newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "fooglue-cache-aging");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+  /**
+   * A counter spread over cells picked by thread, each on its own cache line,
+   * so threads counting at the same time rarely touch the same cells. Reads
+   * sum the cells.
+   */
+  private static final class StripedCounter {
+
+    // longs in a 64 byte cache line
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+      int stripes = 1;
+      while (stripes < Runtime.getRuntime().availableProcessors()) {
+        stripes <<= 1;
+      }
+      this.cells = new AtomicLongArray(stripes * PAD);
+      this.mask = stripes - 1;
+    }
+
+    /**
+     * Increments the cell of the current thread, returning the cell count.
+     */
+    long increment() {
+      long id = Thread.currentThread().getId();
+      int stripe = (int)(id ^ (id >>> 16)) & mask;
+      return cells.incrementAndGet(stripe * PAD);
+    }
+
+    long sum() {
+      long sum = 0;
+      for (int i = 0; i < cells.length(); i += PAD) {
+        sum += cells.get(i);
+      }
+      return sum;
+    }
+
+    void reset() {
+      for (int i = 0; i < cells.length(); i += PAD) {
+        cells.set(i, 0);
+      }
+    }
+  }
+
+  private final int maximumSize;
+  private final ConcurrentHashMap<K, V> data;
+  private final ConcurrentLinkedQueue<K> order = new ConcurrentLinkedQueue<K>();
+  private final AtomicInteger orderSize = new AtomicInteger();
+  private final Object evictionLock = new Object();
+
+  // count-min sketch, 4 rows of saturating counters
+  private final int[][] sketch;
+  private final int sketchMask;
+  private final int sampleSize;
+  private final StripedCounter additions = new StripedCounter();
+  private final AtomicBoolean agingScheduled = new AtomicBoolean();
+  private final Runnable aging = new Runnable() {
+    public void run() {
+      try {
+        additions.reset();
+        for (int[] row : sketch) {
+          for (int i = 0; i < row.length; i++) {
+            row[i] >>>= 1;
+          }
+        }
+      }
+      finally {
+        agingScheduled.set(false);
+      }
+    }
+  };
+
+  // statistics
+  private final StripedCounter hits = new StripedCounter();
+  private final StripedCounter misses = new StripedCounter();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  private static int spread(int hash, int seed) {
+    int h = (hash ^ seed) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Adds a request for the key to the frequency sketch, scheduling the aging
+   * of all counts once enough requests have been recorded. The total of the
+   * requests is only summed once in a while.
+   */
+  private void increment(Object key) {
+    int hash = key.hashCode();
+    for (int i = 0; i < SEEDS.length; i++) {
+      int index = spread(hash, SEEDS[i]) & sketchMask;
+      if (sketch[i][index] < MAX_FREQUENCY) {
+        sketch[i][index]++;
+      }
+    }
+    if ((additions.increment() & ADDITIONS_CHECK_MASK) == 0
+      && additions.sum() >= sampleSize
+      && agingScheduled.compareAndSet(false, true)) {
+      AGING.execute(aging);
+    }
+  }
+
+  /**
+   * Returns the estimated number of recent requests for the key.
+   */
+  private int frequency(Object key) {
+    int hash = key.hashCode();
+    int frequency = MAX_FREQUENCY;
+    for (int i = 0; i < SEEDS.length; i++) {
+      int index = spread(hash, SEEDS[i]) & sketchMask;
+      frequency = Math.min(frequency, sketch[i][index]);
+    }
+    return frequency;
+  }
+
+  /**
+   * Adds the key to the tail of the eviction queue, compacting the queue if it
+   * has filled up with keys that have since been removed from the cache.
+   */
+  private void enqueue(K key) {
+    order.offer(key);
+    if (orderSize.incrementAndGet() > (2 * maximumSize) + 16) {
+      synchronized (evictionLock) {
+        order.retainAll(data.keySet());
+        orderSize.set(order.size());
+      }
+    }
+  }
+
+  public FooGlueCache(int maximumSize) {
+    this.maximumSize = Math.max(1, maximumSize);
+    this.data = new ConcurrentHashMap<K, V>(Math.min(this.maximumSize, 1024));
+    int width = 16;
+    while (width < this.maximumSize) {
+      width <<= 1;
+    }
+    this.sketch = new int[SEEDS.length][width];
+    this.sketchMask = width - 1;
+    this.sampleSize = 10 * width;
+  }
+
+  /**
+   * Returns the cached value for the key or null if the key isn't cached. Each
+   * call counts as a request for the key when deciding admission.
+   *
+   * @param key The cache key.
+   *
+   * @return The cached value or null.
+   */
+  public V get(K key) {
+    increment(key);
+    V value = data.get(key);
+    if (value != null) {
+      hits.increment();
+    }
+    else {
+      misses.increment();
+    }
+    return value;
+  }
+
+  /**
+   * Caches the value for the key. If the cache is full the value is only
+   * cached if the key is requested more frequently than the entry it would
+   * evict.
+   *
+   * @param key The cache key.
+   * @param value The value to cache, can't be null.
+   *
+   * @return True if the value was cached, false if it was rejected.
+   */
+  public boolean put(K key, V value) {
+
+    // replacing a value, no eviction needed
+    if (data.replace(key, value) != null) {
+      return true;
+    }
+
+    // new entries are added under the lock, the size is checked again so
+    // concurrent puts can't grow the cache past its maximum size
+    synchronized (evictionLock) {
+      while (data.size() >= maximumSize && !data.containsKey(key)) {
+
+        // ignore keys that were removed after being queued
+        K victim = order.poll();
+        if (victim == null) {
+          break;
+        }
+        orderSize.decrementAndGet();
+        if (!data.containsKey(victim)) {
+          continue;
+        }
+
+        // the candidate has to be more popular than the victim to get in
+        if (frequency(key) <= frequency(victim)) {
+          order.offer(victim);
+          orderSize.incrementAndGet();
+          rejections.incrementAndGet();
+          return false;
+        }
+        V evicted = data.remove(victim);
+        evictions.incrementAndGet();
+        onEviction(victim, evicted);
+      }
+
+      if (data.put(key, value) == null) {
+        enqueue(key);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Called when an entry is evicted to make room for a new entry. Subclasses
+   * can override to clean up anything tied to the entry. The default does
+   * nothing.
+   *
+   * @param key The evicted key.
+   * @param value The evicted value.
+   */
+  protected void onEviction(K key, V value) {
+
+  }
+
+  /**
+   * Returns true if the key is cached. Doesn't count as a request for the key.
+   *
+   * @param key The cache key.
+   *
+   * @return True if the key is cached.
+   */
+  public boolean containsKey(K key) {
+    return data.containsKey(key);
+  }
+
+  /**
+   * Removes the key from the cache.
+   *
+   * @param key The cache key.
+   *
+   * @return The removed value or null if the key wasn't cached.
+   */
+  public V remove(K key) {
+    return data.remove(key);
+  }
+
+  /**
+   * Returns a live view of the cached keys. Removing a key from the view
+   * removes it from the cache.
+   */
+  public Set<K> keys() {
+    return data.keySet();
+  }
+
+  public void clear() {
+    synchronized (evictionLock) {
+      data.clear();
+      order.clear();
+      orderSize.set(0);
+    }
+  }
+
+  public int size() {
+    return data.size();
+  }
+
+  public int getMaximumSize() {
+    return maximumSize;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getRejectionCount() {
+    return rejections.get();
+  }
+}
@@ -9,10 +9,22 @@ public interface FooGlueConstants {
   public static final String METAS = "_fooglue_metatags_";
   public static final String LINKS = "_fooglue_links_";
   public static final String TITLE = "_fooglue_title_";
+  public static final String REQUEST_CONTEXT = "_fooglue_request_context_";
   
   // output assets in request
   public static final String TITLE_TAG = "_fooglue_title_tag_";
   public static final String META_TAGS = "_fooglue_meta_tags_";
   public static final String LINK_TAGS = "_fooglue_link_tags_";
   public static final String SCRIPT_TAGS = "_fooglue_script_tags_";
+
+  // extension of the gzipped copies of cached assets
+  public static final String GZIP_EXT = ".gz";
+
+  // asset types for pre-rendered fragments
+  public static final int TYPE_TITLE = 1;
+  public static final int TYPE_META = 2;
+  public static final int TYPE_LINK = 4;
+  public static final int TYPE_SCRIPT = 8;
+  public static final int TYPE_ALL = TYPE_TITLE | TYPE_META | TYPE_LINK
+    | TYPE_SCRIPT;
 }
@@ -0,0 +1,38 @@
+package com.igfoo.fooglue;
+
+/**
+ * <p>A dynamic script, link, or meta tag registered once with the fooglue
+ * service, usually when a controller is created.</p>
+ *
+ * <p>The handle holds the compiled tag so it doesn't have to be copied and
+ * compiled on every request. Controllers put the handle into the request lists
+ * of dynamic assets in place of the attribute map or string, and its rendered
+ * tag is cached per locale the same as configured assets.</p>
+ */
+public final class FooGlueDynamicAsset {
+
+  private final int type;
+  private final AssetTag tag;
+  private final TagTemplate template;
+
+  FooGlueDynamicAsset(int type, AssetTag tag, TagTemplate template) {
+    this.type = type;
+    this.tag = tag;
+    this.template = template;
+  }
+
+  /**
+   * Returns the FooGlueConstants type flag of the asset.
+   */
+  public int getType() {
+    return type;
+  }
+
+  AssetTag getTag() {
+    return tag;
+  }
+
+  TagTemplate getTemplate() {
+    return template;
+  }
+}
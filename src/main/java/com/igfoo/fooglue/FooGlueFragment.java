@@ -0,0 +1,170 @@
+package com.igfoo.fooglue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>An immutable, pre-rendered block of fooglue tags for a set of ids, a
+ * locale, and a set of asset types.</p>
+ *
+ * <p>The fragment holds the title, meta, link, and script sections already
+ * joined, each tag followed by a newline, along with the complete content of
+ * all sections. A fragment can be written out with a single write. The
+ * individual tag lists are kept for callers that need to expose them, such as
+ * the FooGlueTag putting output assets into the request.</p>
+ *
+ * <p>A fragment can also hold its content pre-encoded as UTF-8, so that views
+ * and filters writing bytes don't re-encode the same characters on every
+ * response.</p>
+ */
+public final class FooGlueFragment {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final String titleTag;
+  private final List<String> metaTags;
+  private final List<String> linkTags;
+  private final List<String> scriptTags;
+  private final String metaContent;
+  private final String linkContent;
+  private final String scriptContent;
+  private final String content;
+  private volatile byte[] encoded;
+
+  private static String join(List<String> tags) {
+    int length = 0;
+    for (String tag : tags) {
+      length += tag.length() + 1;
+    }
+    StringBuilder builder = new StringBuilder(length);
+    for (String tag : tags) {
+      builder.append(tag).append('\n');
+    }
+    return builder.toString();
+  }
+
+  private static List<String> unmodifiable(List<String> tags) {
+    if (tags == null || tags.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(tags);
+  }
+
+  public FooGlueFragment(String titleTag, List<String> metaTags,
+    List<String> linkTags, List<String> scriptTags) {
+
+    this.titleTag = titleTag;
+    this.metaTags = unmodifiable(metaTags);
+    this.linkTags = unmodifiable(linkTags);
+    this.scriptTags = unmodifiable(scriptTags);
+    this.metaContent = join(this.metaTags);
+    this.linkContent = join(this.linkTags);
+    this.scriptContent = join(this.scriptTags);
+
+    // title, meta, link, and script order matches the FooGlueTag output
+    String titleContent = (titleTag != null) ? titleTag + "\n" : "";
+    StringBuilder builder = new StringBuilder(titleContent.length()
+      + metaContent.length() + linkContent.length() + scriptContent.length());
+    builder.append(titleContent).append(metaContent).append(linkContent)
+      .append(scriptContent);
+    this.content = builder.toString();
+  }
+
+  /**
+   * Returns the title tag or null if the fragment has no title.
+   */
+  public String getTitleTag() {
+    return titleTag;
+  }
+
+  public List<String> getMetaTags() {
+    return metaTags;
+  }
+
+  public List<String> getLinkTags() {
+    return linkTags;
+  }
+
+  public List<String> getScriptTags() {
+    return scriptTags;
+  }
+
+  /**
+   * Returns the joined meta tags, each followed by a newline.
+   */
+  public String getMetaContent() {
+    return metaContent;
+  }
+
+  /**
+   * Returns the joined link tags, each followed by a newline.
+   */
+  public String getLinkContent() {
+    return linkContent;
+  }
+
+  /**
+   * Returns the joined script tags, each followed by a newline.
+   */
+  public String getScriptContent() {
+    return scriptContent;
+  }
+
+  /**
+   * Returns the complete fragment, title then meta, link, and script tags.
+   */
+  public String getContent() {
+    return content;
+  }
+
+  /**
+   * Writes out the complete fragment with a single append.
+   * 
+   * @param out The output to write the fragment to.
+   */
+  public void writeTo(Appendable out)
+    throws IOException {
+    out.append(content);
+  }
+
+  /**
+   * Encodes the content as UTF-8 and keeps the bytes for writing to output
+   * streams. Encoding more than once is harmless, the bytes are the same.
+   */
+  void encode() {
+    if (encoded == null) {
+      encoded = content.getBytes(UTF8);
+    }
+  }
+
+  /**
+   * Returns true if the content is held pre-encoded as UTF-8.
+   */
+  public boolean isEncoded() {
+    return encoded != null;
+  }
+
+  /**
+   * Writes out the complete fragment as UTF-8 bytes. Pre-encoded fragments are
+   * written as is, otherwise the content is encoded for this write only.
+   * 
+   * @param out The output stream to write the fragment to.
+   */
+  public void writeTo(OutputStream out)
+    throws IOException {
+    byte[] bytes = encoded;
+    out.write((bytes != null) ? bytes : content.getBytes(UTF8));
+  }
+
+  public boolean isEmpty() {
+    return content.length() == 0;
+  }
+
+  @Override
+  public String toString() {
+    return content;
+  }
+}
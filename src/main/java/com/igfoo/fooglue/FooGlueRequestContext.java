@@ -0,0 +1,107 @@
+package com.igfoo.fooglue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * <p>Everything the FooGlueTag resolves for a request, kept in the request so
+ * that it is only resolved once no matter how many times the tag is used on a
+ * page.</p>
+ *
+ * <p>The context holds the parsed and deduped ids from the request, the locale,
+ * the fooglue service, and the fragments already rendered for the request. A
+ * context is created by FooGlueUtils.setupRequest or by the first FooGlueTag
+ * on the page. If the ids in the request are changed after the context was
+ * created, a new context is created for the new ids.</p>
+ */
+public final class FooGlueRequestContext {
+
+  private final String idStr;
+  private final List<String> ids;
+  private final Locale locale;
+  private FooGlueService service;
+  private final Map<Integer, FooGlueFragment> fragments = new HashMap<Integer, FooGlueFragment>(
+    4);
+
+  /**
+   * Splits a comma separated string of ids, trimming and deduping them while
+   * keeping them in order.
+   *
+   * @param idStr The comma separated ids.
+   *
+   * @return The unique ids, in order.
+   */
+  static List<String> parseIds(String idStr) {
+    Set<String> idSet = new LinkedHashSet<String>();
+    String[] idAr = StringUtils.split(idStr, ",");
+    if (idAr != null) {
+      for (String id : idAr) {
+        idSet.add(StringUtils.trim(id));
+      }
+    }
+    return Collections.unmodifiableList(new ArrayList<String>(idSet));
+  }
+
+  FooGlueRequestContext(String idStr, Locale locale, FooGlueService service) {
+    this.idStr = idStr;
+    this.ids = parseIds(idStr);
+    this.locale = locale;
+    this.service = service;
+  }
+
+  /**
+   * Returns true if the context was created for the ids string.
+   */
+  boolean isFor(String curIdStr) {
+    return (idStr == curIdStr) || StringUtils.equals(idStr, curIdStr);
+  }
+
+  /**
+   * Returns the unique ids from the request, in order.
+   */
+  public List<String> getIds() {
+    return ids;
+  }
+
+  public Locale getLocale() {
+    return locale;
+  }
+
+  /**
+   * Returns the fooglue service or null if it hasn't been resolved yet.
+   */
+  public FooGlueService getService() {
+    return service;
+  }
+
+  void setService(FooGlueService service) {
+    this.service = service;
+  }
+
+  /**
+   * Returns the fragment for the request ids, rendering it through the service
+   * only the first time it is needed in the request.
+   *
+   * @param includeGlobal Include global assets.
+   * @param types The FooGlueConstants type flags of the assets to include.
+   *
+   * @return The fragment for the request ids.
+   */
+  public FooGlueFragment getFragment(boolean includeGlobal, int types) {
+    Integer key = Integer.valueOf((includeGlobal ? 32 : 0) | types);
+    FooGlueFragment fragment = fragments.get(key);
+    if (fragment == null) {
+      fragment = service.getFragmentForIds(ids, locale, includeGlobal, types);
+      fragments.put(key, fragment);
+    }
+    return fragment;
+  }
+}
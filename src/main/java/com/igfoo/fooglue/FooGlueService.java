@@ -1,5 +1,8 @@
 package com.igfoo.fooglue;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -19,6 +22,11 @@ public interface FooGlueService {
 
   public String getTitleTagForId(String id, Locale locale, boolean includeGlobal);
 
+  // pre-rendered fragments
+
+  public FooGlueFragment getFragmentForIds(Collection<String> ids,
+    Locale locale, boolean includeGlobal, int types);
+
   // dynamic assets
 
   public List<String> getDynamicScriptTags(List scripts, Locale locale);
@@ -29,4 +37,52 @@ public interface FooGlueService {
   public List<String> getDynamicLinkTags(List links, Locale locale);
 
   public String getDynamicTitleTag(String title, Locale locale);
+
+  // dynamic assets registered once by controllers
+
+  public FooGlueDynamicAsset registerDynamicScript(Object script);
+
+  public FooGlueDynamicAsset registerDynamicMeta(Map<String, String> meta);
+
+  public FooGlueDynamicAsset registerDynamicLink(Object link);
+
+  // streaming output, each tag is followed by a newline
+
+  public void writeScriptTagsForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException;
+
+  public void writeMetaTagsForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException;
+
+  public void writeLinkTagsForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException;
+
+  public void writeTitleTagForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException;
+
+  public void writeFragmentForIds(Collection<String> ids, Locale locale,
+    boolean includeGlobal, int types, Appendable out)
+    throws IOException;
+
+  public void writeFragmentForIds(Collection<String> ids, Locale locale,
+    boolean includeGlobal, int types, OutputStream out)
+    throws IOException;
+
+  public void writeDynamicScriptTags(List scripts, Locale locale,
+    Appendable out)
+    throws IOException;
+
+  public void writeDynamicMetaTags(List<Map<String, String>> metas,
+    Locale locale, Appendable out)
+    throws IOException;
+
+  public void writeDynamicLinkTags(List links, Locale locale, Appendable out)
+    throws IOException;
+
+  public void writeDynamicTitleTag(String title, Locale locale, Appendable out)
+    throws IOException;
 }
@@ -4,39 +4,79 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.zip.CRC32;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.LocaleUtils;
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.TextNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.MessageSource;
 import org.springframework.context.MessageSourceAware;
-import org.springframework.context.NoSuchMessageException;
 import org.springframework.core.io.Resource;
 
+import com.igfoo.springutils.PatternReloadableResourceBundleMessageSource;
+
 public class FooGlueServiceImpl
   implements MessageSourceAware, FooGlueService {
 
   private final static Logger LOG = LoggerFactory
     .getLogger(FooGlueServiceImpl.class);
 
+  // cached in place of properties that don't exist
+  private final static Object MISSING_PROPERTY = new Object();
+
+  // the manifest of cached assets kept in the cache directory
+  private final static String CACHE_MANIFEST = "_fg_manifest_.json";
+
   private MessageSource messageSource;
   private Resource[] configResources;
   private String rootDir;
@@ -50,118 +90,555 @@ public class FooGlueServiceImpl
 
   // config file and asset file reloading
   private long reloadInterval = 2000;
-  private PollingReloader reloader;
+  private Thread reloader;
+  private boolean watchForChanges = true;
+  private int watchFullCheckIntervals = 30;
+  private String[] polledDirs;
+  private long reloadQuietPeriod = 500;
   private AtomicBoolean active = new AtomicBoolean(false);
   private Map<String, Long> fileModTimes = new ConcurrentHashMap<String, Long>();
-  private Set<String> configSet = new LinkedHashSet<String>();
-  private Set<String> assetSet = new LinkedHashSet<String>();
-  private Map<String, Set<String>> assetsToConfigs = new HashMap<String, Set<String>>();
-  private Map<String, String> idToConfig = new HashMap<String, String>();
+  private int loadThreads = Runtime.getRuntime().availableProcessors();
+  private final FingerprintCache fingerprints = new FingerprintCache();
+  private final CacheFiles cacheFiles = new CacheFiles();
+  private long minifyTimeout = 30000;
+  private int minifyThreads = Math.max(1, Runtime.getRuntime()
+    .availableProcessors() / 2);
+  private volatile ExecutorService minifier;
+  private volatile ExecutorService compressors;
+  private final ConcurrentMap<String, Boolean> pendingMinifies = new ConcurrentHashMap<String, Boolean>();
+  private final Set<String> abandonedMinifies = Collections
+    .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final Queue<String> minifiedAssets = new ConcurrentLinkedQueue<String>();
+  private final ConcurrentMap<String, FutureTask<String>> cachedAssetPaths = new ConcurrentHashMap<String, FutureTask<String>>();
+  private final ConcurrentMap<String, Boolean> bundleableFiles = new ConcurrentHashMap<String, Boolean>();
 
   // caches and asset maps
   private String cacheDir;
   private boolean cacheAssets = false;
   private boolean minifyAssets = false;
-  private Map<String, Map> assets = new ConcurrentHashMap<String, Map>();
-  private Map<String, String> aliasesCache = new ConcurrentHashMap<String, String>();
-  private Map<String, List> scriptsCache = new ConcurrentHashMap<String, List>();
-  private Map<String, List> metaCache = new ConcurrentHashMap<String, List>();
-  private Map<String, List> linksCache = new ConcurrentHashMap<String, List>();
-  private Map<String, String> titleCache = new ConcurrentHashMap<String, String>();
+  private boolean keepCacheOnShutdown = false;
+  private boolean sharedCacheDir = false;
+  private boolean bundleAssets = false;
+  private int sharedBundleIds = 0;
+  private boolean gzipAssets = false;
+  private int gzipMinSize = 1024;
+  private final Object snapshotLock = new Object();
+  private volatile AssetSnapshot snapshot = AssetSnapshot.EMPTY;
+  private int renderCacheMaxSize = 10000;
+  private Locale[] warmupLocales;
+  private int warmupThreads = Runtime.getRuntime().availableProcessors();
+  private int propertyCacheMaxSize = 10000;
+  private volatile long messageReloadCount = 0;
+  private boolean preEncodeFragments = false;
+  private volatile FooGlueCache<PropertyKey, Object> propertyCache = new FooGlueCache<PropertyKey, Object>(
+    propertyCacheMaxSize);
+  private volatile RenderCache renderCache = new RenderCache(
+    renderCacheMaxSize);
+  private int dynamicCacheMaxSize = 1000;
+  private volatile FooGlueCache<DynamicKey, String> dynamicCache = new FooGlueCache<DynamicKey, String>(
+    dynamicCacheMaxSize);
 
   /**
    * A continuous looping thread that polls the file system for changes to both
    * configuration files and asset files, css and javascript. Starts execution
-   * on startup and ends on shutdown.
+   * on startup and ends on shutdown. Used when watching for changes is turned
+   * off or the file system doesn't support watching.
    */
   private class PollingReloader
     extends Thread {
 
+    private final ChangeBatcher batcher = new ChangeBatcher();
+
     @Override
     public void run() {
 
-      // holder for any files that were monitored and have not been removed
-      // from the filesystem and need to be removed from monitoring
-      List<String> removed = new ArrayList<String>();
-
       while (active.get()) {
 
-        // loop through the files checking for updated modified times
-        for (Entry<String, Long> fileModEntry : fileModTimes.entrySet()) {
+        // loop through the files checking for updated modified times, changes
+        // are reloaded together once the files stop changing
+        batcher.add(checkModified(fileModTimes.keySet()));
+        batcher.add(drainMinifiedAssets());
+        batcher.reloadIfQuiet();
 
-          // get the filename and last modified time
-          String filePath = fileModEntry.getKey();
-          long fileLastMod = fileModEntry.getValue();
+        // let the message bundles reload if they have changed
+        refreshMessages();
 
-          // if the file exists on the file system and it has been modified
-          File checkFile = new File(filePath);
-          if (checkFile.exists() && (checkFile.lastModified() > fileLastMod)) {
+        // sleep and then do it all over again
+        try {
+          Thread.sleep(batcher.getWaitTime(reloadInterval));
+        }
+        catch (InterruptedException e) {
+          // continue if interrupted
+        }
+      }
+    }
+  }
 
-            // if the file is an asset file, get the configs it is part of, else
-            // it is a config file, add it to be reloaded
-            Set<String> configsToReload = new LinkedHashSet<String>();
-            if (assetSet.contains(filePath)) {
-              configsToReload = assetsToConfigs.get(filePath);
-            }
-            else {
-              configsToReload.add(filePath);
-            }
+  /**
+   * <p>A continuous looping thread that watches the directories of both
+   * configuration files and asset files for changes using a WatchService.
+   * Starts execution on startup and ends on shutdown.</p>
+   * 
+   * <p>Files are only checked when the file system reports an event in their
+   * directory, instead of every file being checked on every pass. Files in
+   * directories that can't be watched, are no longer watched, or are set to
+   * be polled are polled every reloadInterval, as are all files if the watch
+   * service loses events.</p>
+   * 
+   * <p>Some file systems, such as NFS mounts, accept the watch but never
+   * report changes made by other servers. Every watchFullCheckIntervals
+   * reload intervals all files are checked, so those changes are still
+   * reloaded, only later.</p>
+   */
+  private class WatchingReloader
+    extends Thread {
 
-            // check for global reloading
-            boolean globalReload = false;
-            for (String configToReload : configsToReload) {
-              if (StringUtils.equalsIgnoreCase(configToReload, globalConfig)) {
-                globalReload = true;
-                break;
-              }
-            }
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+    private final Set<Path> registeredDirs = new HashSet<Path>();
+    private final Map<Path, String> monitoredPaths = new HashMap<Path, String>();
+    private final Set<String> polledFiles = new LinkedHashSet<String>();
+    private final ChangeBatcher batcher = new ChangeBatcher();
+    private long lastFullCheck = System.currentTimeMillis();
+
+    WatchingReloader(WatchService watchService) {
+      this.watchService = watchService;
+
+      // register before the thread starts so no changes are missed
+      registerDirectories();
+    }
+
+    /**
+     * Returns true if the file is in one of the directories set to be polled.
+     */
+    private boolean isPolled(Path file) {
+      if (polledDirs != null) {
+        for (String polledDir : polledDirs) {
+          if (file.startsWith(Paths.get(polledDir).toAbsolutePath()
+            .normalize())) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Registers the directory of every monitored file that isn't already being
+     * watched. Files in directories that can't be watched, or are set to be
+     * polled, are polled.
+     */
+    private void registerDirectories() {
+
+      monitoredPaths.clear();
+      polledFiles.clear();
+      for (String filePath : fileModTimes.keySet()) {
+
+        Path file = Paths.get(filePath).toAbsolutePath().normalize();
+        monitoredPaths.put(file, filePath);
+        Path dir = file.getParent();
+        if (dir == null || isPolled(file)) {
+          polledFiles.add(filePath);
+          continue;
+        }
+
+        // only register each directory once
+        if (!registeredDirs.contains(dir)) {
+          try {
+            WatchKey watchKey = dir.register(watchService,
+              StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY,
+              StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirs.put(watchKey, dir);
+            registeredDirs.add(dir);
+          }
+          catch (Exception e) {
+            LOG.warn("Can't watch " + dir + ", polling for changes instead");
+          }
+        }
+        if (!registeredDirs.contains(dir)) {
+          polledFiles.add(filePath);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+
+      try {
+
+        // catch anything that changed after loading but before the watch
+        batcher.add(checkModified(fileModTimes.keySet()));
 
-            // do a global reload or individual reloads of configuration files
-            // even if asset files changed, we still are reloading their configs
-            if (globalReload) {
-              LOG.info("Global config changed, reloading all asset configs");
-              loadAllAssetConfigFiles();
+        while (active.get()) {
+
+          // wait up to the reload interval for the first event, or until the
+          // end of the quiet period if changes are waiting to be reloaded
+          WatchKey watchKey = null;
+          try {
+            watchKey = watchService.poll(batcher.getWaitTime(reloadInterval),
+              TimeUnit.MILLISECONDS);
+          }
+          catch (InterruptedException e) {
+            // continue if interrupted
+          }
+          catch (ClosedWatchServiceException e) {
+            break;
+          }
+
+          // collect the monitored files that had events, draining any other
+          // events already queued. an overflow means events were lost and
+          // all files have to be checked
+          Set<String> candidates = new LinkedHashSet<String>(polledFiles);
+          boolean overflow = false;
+          while (watchKey != null) {
+            Path dir = watchedDirs.get(watchKey);
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+              if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+              }
+              else if (dir != null) {
+                String filePath = monitoredPaths.get(dir.resolve((Path)event
+                  .context()));
+                if (filePath != null) {
+                  candidates.add(filePath);
+                }
+              }
             }
-            else {
-              for (String configToReload : configsToReload) {
-                LOG.info("Reloading: " + configToReload);
-                loadAssetConfig(new File(configToReload));
+            if (!watchKey.reset() && dir != null) {
+
+              // the directory is no longer watched, poll its files until it
+              // can be registered again
+              watchedDirs.remove(watchKey);
+              registeredDirs.remove(dir);
+              for (Entry<Path, String> monitored : monitoredPaths.entrySet()) {
+                if (dir.equals(monitored.getKey().getParent())) {
+                  polledFiles.add(monitored.getValue());
+                  candidates.add(monitored.getValue());
+                }
               }
             }
+            watchKey = watchService.poll();
           }
-          else if (!checkFile.exists()) {
-            // the file existed previously but has now been removed
-            removed.add(filePath);
+          long now = System.currentTimeMillis();
+          boolean fullCheck = watchFullCheckIntervals > 0
+            && now - lastFullCheck >= watchFullCheckIntervals * reloadInterval;
+          if (overflow || fullCheck) {
+            candidates.addAll(fileModTimes.keySet());
+            lastFullCheck = now;
           }
-        }
 
-        // remove any assets from monitoring that have been removed from the
-        // filesystem, no need to keep polling for files that aren't there
-        // TODO: more fine grained removal from caches
-        for (String assetOrConfig : removed) {
-          fileModTimes.remove(assetOrConfig);
-        }
-        removed.clear();
+          // reload changes once the files stop changing, monitored files may
+          // have been added by the reload so register any new directories
+          batcher.add(checkModified(candidates));
+          batcher.add(drainMinifiedAssets());
+          if (batcher.reloadIfQuiet()) {
+            registerDirectories();
+          }
 
-        // sleep and then do it all over again
+          // let the message bundles reload if they have changed
+          refreshMessages();
+        }
+      }
+      finally {
         try {
-          Thread.sleep(reloadInterval);
+          watchService.close();
         }
-        catch (InterruptedException e) {
-          // continue if interrupted
+        catch (IOException e) {
+          // ignore errors closing the watch service
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks the files for changes to their last modified times. Changed files
+   * are updated with their new modified times so that they aren't reloaded
+   * again until they change again. Files that no longer exist are removed
+   * from monitoring, no need to keep checking for files that aren't there,
+   * and are returned as changed so their configs are reloaded.
+   * 
+   * @param filePaths The monitored files to check.
+   * 
+   * @return The files that have changed or been removed.
+   */
+  private Set<String> checkModified(Collection<String> filePaths) {
+
+    Set<String> changed = new LinkedHashSet<String>();
+    for (String filePath : filePaths) {
+
+      Long fileLastMod = fileModTimes.get(filePath);
+      if (fileLastMod == null) {
+        continue;
+      }
+
+      // if the file exists on the file system and it has been modified
+      File checkFile = new File(filePath);
+      long lastModified = checkFile.lastModified();
+      if (lastModified > fileLastMod) {
+        fileModTimes.put(filePath, lastModified);
+        changed.add(filePath);
+      }
+      else if (!checkFile.exists()) {
+        // the file existed previously but has now been removed
+        fileModTimes.remove(filePath);
+        changed.add(filePath);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Collects changed files until no more changes have been seen for the
+   * reload quiet period, so that a deployment copying many files causes a
+   * single reload instead of one per file. Only used by the reloader thread.
+   */
+  private class ChangeBatcher {
+
+    private final Set<String> pending = new LinkedHashSet<String>();
+    private long lastChange;
+
+    /**
+     * Adds changed files to the batch, restarting the quiet period.
+     */
+    void add(Collection<String> changed) {
+      if (!changed.isEmpty()) {
+        pending.addAll(changed);
+        lastChange = System.currentTimeMillis();
+      }
+    }
+
+    /**
+     * Returns how long to wait before checking for changes again, the time
+     * left in the quiet period if changes are waiting, otherwise the max wait.
+     */
+    long getWaitTime(long maxWait) {
+      if (pending.isEmpty()) {
+        return maxWait;
+      }
+      long remaining = lastChange + reloadQuietPeriod
+        - System.currentTimeMillis();
+      return Math.max(1, Math.min(maxWait, remaining));
+    }
+
+    /**
+     * Reloads the batched changes if the quiet period has passed.
+     * 
+     * @return True if changes were reloaded.
+     */
+    boolean reloadIfQuiet() {
+      if (pending.isEmpty()
+        || System.currentTimeMillis() - lastChange < reloadQuietPeriod) {
+        return false;
+      }
+      List<String> changed = new ArrayList<String>(pending);
+      pending.clear();
+      reloadChanged(changed);
+      return true;
+    }
+  }
+
+  /**
+   * Reloads the configs for the changed files. Changed asset files reload all
+   * of the configs they are part of and replace the renders of the ids that
+   * use them, changed config files are reloaded themselves. Each config is
+   * reloaded once into a new generation of the configuration which is only
+   * published if every config loads. If the global config changed everything
+   * is reloaded, once. Removed assets are no longer monitored and removed
+   * configs remove their ids.
+   * 
+   * @param changed The changed config and asset files.
+   */
+  private void reloadChanged(Collection<String> changed) {
+
+    // the next generation starts as a copy of the current one
+    AssetSnapshot current = snapshot;
+    AssetSnapshot.Builder builder = current.edit(false);
+
+    // if the file is an asset file, get the configs and ids it is part of,
+    // else it is a config file, add it to be reloaded
+    Set<String> configsToReload = new LinkedHashSet<String>();
+    Set<String> touchedIds = new LinkedHashSet<String>();
+    for (String filePath : changed) {
+      boolean removed = !new File(filePath).exists();
+      if (current.isAsset(filePath)) {
+        configsToReload.addAll(current.getAssetConfigs(filePath));
+        touchedIds.addAll(current.getAssetIds(filePath));
+        if (removed) {
+          builder.removeAsset(filePath);
+        }
+      }
+      else if (removed) {
+        LOG.info("Config removed: " + filePath);
+        builder.removeConfig(filePath);
+      }
+      else {
+        configsToReload.add(filePath);
+      }
+    }
+
+    // entries using changed assets are compiled again, not reused
+    builder.removeDefinitions(touchedIds);
+
+    // check for global reloading
+    boolean globalReload = false;
+    for (String configToReload : configsToReload) {
+      String configName = new File(configToReload).getName();
+      if (StringUtils.equalsIgnoreCase(configName, globalConfig)) {
+        globalReload = true;
+        break;
+      }
+    }
+
+    // do a global reload or individual reloads of configuration files
+    // even if asset files changed, we still are reloading their configs
+    if (globalReload) {
+      LOG.info("Global config changed, reloading all asset configs");
+      loadAllAssetConfigFiles(touchedIds);
+    }
+    else {
+      List<File> configFiles = new ArrayList<File>();
+      for (String configToReload : configsToReload) {
+        LOG.info("Reloading: " + configToReload);
+        configFiles.add(new File(configToReload));
+      }
+      loadAssetConfigs(configFiles, builder);
+      publishAssets(builder, touchedIds);
+    }
+  }
+
+  /**
+   * Resolves the holes in compiled tag templates using the message source and
+   * the asset root directory.
+   */
+  private final TagResolver tagResolver = new TagResolver() {
+
+    public boolean isProperty(String value) {
+      return StringUtils.isNotBlank(value)
+        && StringUtils.startsWith(value, propertyTagStart)
+        && StringUtils.endsWith(value, propertyTagEnd);
+    }
+
+    public String resolveProperty(String property, Locale locale) {
+      return FooGlueServiceImpl.this.resolveProperty(property, locale);
+    }
+
+    public String getAssetSource(String assetPath) {
+      return FooGlueServiceImpl.this.getAssetSource(assetPath);
+    }
+
+    public String getAssetHost() {
+      return assetHost;
+    }
+  };
+
+  /**
+   * A fork join task that pre-renders the script, meta, link, and title tags
+   * for a range of ids in every warmup locale, both with and without global
+   * assets, into a target cache.
+   */
+  private class WarmupTask
+    extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 16;
+
+    private final AssetSnapshot current;
+    private final String[] ids;
+    private final int start;
+    private final int end;
+    private final RenderCache target;
+    private final Set<RenderKey> warmed;
+
+    WarmupTask(AssetSnapshot current, String[] ids, int start, int end,
+      RenderCache target, Set<RenderKey> warmed) {
+      this.current = current;
+      this.ids = ids;
+      this.start = start;
+      this.end = end;
+      this.target = target;
+      this.warmed = warmed;
+    }
+
+    private void warm(RenderKey cacheKey, Object rendered) {
+      if (target.put(cacheKey, rendered)) {
+        warmed.add(cacheKey);
+      }
+    }
+
+    @Override
+    protected void compute() {
+
+      // split the ids until the range is small enough to render directly
+      if (end - start > THRESHOLD) {
+        int middle = (start + end) >>> 1;
+        invokeAll(new WarmupTask(current, ids, start, middle, target, warmed),
+          new WarmupTask(current, ids, middle, end, target, warmed));
+        return;
+      }
+
+      for (int i = start; i < end; i++) {
+        String id = ids[i];
+        for (Locale locale : warmupLocales) {
+          for (boolean global : new boolean[] {true, false}) {
+            warm(new RenderKey(FooGlueConstants.TYPE_SCRIPT, id, locale, global),
+              renderScriptTags(current, id, locale, global));
+            warm(new RenderKey(FooGlueConstants.TYPE_META, id, locale, global),
+              renderMetaTags(current, id, locale, global));
+            warm(new RenderKey(FooGlueConstants.TYPE_LINK, id, locale, global),
+              renderLinkTags(current, id, locale, global));
+            warm(new RenderKey(FooGlueConstants.TYPE_TITLE, id, locale, global),
+              renderTitleTag(current, id, locale, global));
+          }
         }
       }
     }
   }
 
+  /**
+   * Pre-renders all of the ids in every warmup locale into the target cache
+   * using a fork join pool. Returns the keys that were cached.
+   * 
+   * @param current The snapshot to render from.
+   * @param ids The ids to render.
+   * @param target The cache to render into.
+   * 
+   * @return The keys of the renders added to the target cache.
+   */
+  private Set<RenderKey> warmRenders(AssetSnapshot current,
+    Collection<String> ids, RenderCache target) {
+
+    Set<RenderKey> warmed = Collections
+      .newSetFromMap(new ConcurrentHashMap<RenderKey, Boolean>());
+    if (warmupLocales == null || warmupLocales.length == 0 || ids.isEmpty()) {
+      return warmed;
+    }
+
+    long start = System.currentTimeMillis();
+    String[] idArray = ids.toArray(new String[ids.size()]);
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, warmupThreads));
+    try {
+      pool.invoke(new WarmupTask(current, idArray, 0, idArray.length, target,
+        warmed));
+    }
+    finally {
+      pool.shutdown();
+    }
+    LOG.info("Pre-rendered " + warmed.size() + " renders for " + idArray.length
+      + " ids in " + (System.currentTimeMillis() - start) + "ms");
+
+    return warmed;
+  }
+
   /**
    * Replaces an alias name with its interpolated value.
    * 
    * @param alias The alias to replace.
+   * @param builder The generation being loaded, holding the aliases.
    * 
    * @return The interpolated alias value.
    */
-  private String resolveAlias(String alias) {
+  private String resolveAlias(String alias, AssetSnapshot.Builder builder) {
 
     // remove the start and end alias tags and resolve the alias to its value
     if (StringUtils.isNotBlank(alias)
@@ -169,7 +646,7 @@ public class FooGlueServiceImpl
       && StringUtils.endsWith(alias, aliasTagEnd)) {
       String aliasKey = StringUtils.removeStart(alias, aliasTagStart);
       aliasKey = StringUtils.removeEnd(aliasKey, aliasTagEnd);
-      return aliasesCache.get(aliasKey);
+      return builder.getAlias(aliasKey);
     }
 
     // alias doesn't have a value, return the original alias
@@ -181,17 +658,19 @@ public class FooGlueServiceImpl
    * key to interpolated alias values or original values if no alias exists.
    * 
    * @param keyVals The Map of keys and values to check and replace aliases.
+   * @param builder The generation being loaded, holding the aliases.
    * 
    * @return A Map of keys to interpolated alias values or original values if
    * the value didn't contain an alias.
    */
-  private Map<String, String> resolveAliases(Map<String, String> keyVals) {
+  private Map<String, String> resolveAliases(Map<String, String> keyVals,
+    AssetSnapshot.Builder builder) {
 
     // loop through the key value map checking for aliases, replacing any
     // aliases in values if they are found
     Map<String, String> replaced = new LinkedHashMap<String, String>();
     for (Entry<String, String> keyVal : keyVals.entrySet()) {
-      String value = resolveAlias(keyVal.getValue());
+      String value = resolveAlias(keyVal.getValue(), builder);
       replaced.put(keyVal.getKey(), value);
     }
     return replaced;
@@ -201,30 +680,25 @@ public class FooGlueServiceImpl
    * Returns a key value Map from a JSON node. This is used in custom asset
    * configuration, such as meta tags.
    * 
-   * @param node The node to extract key value pairs from.
+   * @param node The node to extract key value pairs from, can be null.
    * 
    * @return A Map containing the key value attribute pairs.
    */
   private Map<String, String> getAttributes(JsonNode node) {
     Map<String, String> attrMap = new LinkedHashMap<String, String>();
-    for (String fieldname : JSONUtils.getFieldNames(node)) {
-      String value = JSONUtils.getStringValue(node, fieldname);
-      if (StringUtils.isNotBlank(value)) {
-        attrMap.put(fieldname, value);
-      }
-    }
+    JSONUtils.getTextFields(node, attrMap);
     return attrMap;
   }
 
   /**
    * Replaces a property with its interpolated value if one exists. If no
-   * property exists then the original name is returned.
+   * property exists then the original name is returned. Resolved values, and
+   * missing properties, are cached per locale when caching assets.
    * 
-   * @param alias The alias to replace.
+   * @param property The property to replace.
+   * @param locale The locale to resolve the property in.
    * 
-   * @param property The property to
-   * @param locale
-   * @return The interpolated alias value.
+   * @return The interpolated property value.
    */
   private String resolveProperty(String property, Locale locale) {
 
@@ -236,20 +710,104 @@ public class FooGlueServiceImpl
       String propertyName = StringUtils.removeStart(property, propertyTagStart);
       propertyName = StringUtils.removeEnd(propertyName, propertyTagEnd);
 
-      // try to resolve the property, if no property exists then default back
-      // to the original input
-      try {
-        return messageSource.getMessage(propertyName, new Object[0], locale);
+      // check the cache first, missing properties are cached as well
+      PropertyKey cacheKey = null;
+      if (cacheAssets) {
+        cacheKey = new PropertyKey(propertyName, locale);
+        Object cached = propertyCache.get(cacheKey);
+        if (cached != null) {
+          return (cached != MISSING_PROPERTY) ? (String)cached : property;
+        }
       }
-      catch (NoSuchMessageException e) {
-        return property;
+
+      // try to resolve the property, a null default message returns null for
+      // missing properties instead of throwing NoSuchMessageException. if no
+      // property exists then default back to the original input
+      String message = messageSource.getMessage(propertyName, null, null,
+        locale);
+      if (cacheKey != null) {
+        propertyCache.put(cacheKey, (message != null) ? message
+          : MISSING_PROPERTY);
       }
+      return (message != null) ? message : property;
     }
 
     // short circuit, no property tags, no reason to check for property
     return property;
   }
 
+  /**
+   * Returns the reload count of the message source, or 0 if the message source
+   * doesn't track reloads.
+   */
+  private long getMessageReloadCount() {
+    if (messageSource instanceof PatternReloadableResourceBundleMessageSource) {
+      return ((PatternReloadableResourceBundleMessageSource)messageSource)
+        .getReloadCount();
+    }
+    return 0;
+  }
+
+  /**
+   * Replaces the resolved properties and the renders that contain them if the
+   * message bundles have been reloaded since they were last checked. Only
+   * called on the reloader thread, the renders are rebuilt off to the side and
+   * swapped in, as for a global change, so requests never see a cold cache.
+   */
+  private void checkMessagesReloaded() {
+
+    long reloadCount = getMessageReloadCount();
+    if (reloadCount == messageReloadCount) {
+      return;
+    }
+    LOG.info("Message bundles reloaded, replacing resolved properties");
+    messageReloadCount = reloadCount;
+
+    // renders started with the old messages aren't cached once the publish
+    // begins, properties are resolved again before the renders are warmed
+    AssetSnapshot current;
+    RenderCache previous;
+    synchronized (snapshotLock) {
+      current = snapshot;
+      previous = renderCache;
+      previous.beginPublish();
+    }
+    try {
+      propertyCache = new FooGlueCache<PropertyKey, Object>(
+        propertyCacheMaxSize);
+      dynamicCache = new FooGlueCache<DynamicKey, String>(dynamicCacheMaxSize);
+      RenderCache rebuilt = new RenderCache(renderCacheMaxSize);
+      warmRenders(current, current.getEntries().keySet(), rebuilt);
+      renderCache = rebuilt;
+    }
+    finally {
+      previous.endPublish();
+    }
+  }
+
+  /**
+   * Reloadable message sources only check their bundles for changes when a
+   * message is resolved. Once properties are cached that rarely happens, so
+   * resolve a message for each cached locale to give the message source the
+   * chance to reload.
+   */
+  private void refreshMessages() {
+
+    if (!cacheAssets
+      || !(messageSource instanceof PatternReloadableResourceBundleMessageSource)) {
+      return;
+    }
+
+    Set<Locale> locales = new HashSet<Locale>();
+    for (PropertyKey cacheKey : propertyCache.keys()) {
+      locales.add(cacheKey.getLocale());
+    }
+    for (Locale locale : locales) {
+      messageSource.getMessage(FooGlueConstants.GLOBAL, null, null, locale);
+    }
+    checkMessagesReloaded();
+  }
+
   /**
    * Returns the source of the asset as a string. This is useful when you want
    * to embed a script or stylesheet source inside a web page.
@@ -278,39 +836,33 @@ public class FooGlueServiceImpl
   }
 
   /**
-   * Adds the asset to monitoring allowing it to be reloaded upon changes.
+   * Adds the asset to monitoring allowing it to be reloaded upon changes. The
+   * asset is mapped to the configs and ids that use it, so that a change to
+   * the asset reloads the configs and replaces the renders for the ids.
    * 
    * @param assetPath The asset file path.
    * @param configPath The config file path
+   * @param ids The ids of the entry using the asset.
+   * @param builder The generation being loaded.
    */
-  private void monitorAsset(String assetPath, String configPath) {
-
-    // only need to add it if it doesn't already exist in monitoring
-    if (!fileModTimes.containsKey(assetPath)) {
-
-      File asset = new File(assetPath);
-      if (asset.exists()) {
+  private void monitorAsset(String assetPath, String configPath,
+    List<String> ids, AssetSnapshot.Builder builder) {
 
-        // asset last modified time
-        long lastMod = asset.lastModified();
-        fileModTimes.put(assetPath, lastMod);
-
-        // add the asset to the assets set
-        assetSet.add(assetPath);
+    // assets are monitored by their path on the file system
+    File asset = new File(rootDir, assetPath);
+    assetPath = asset.getPath();
+    if (!asset.exists()) {
+      return;
+    }
 
-        // map the asset to its configs, allowing all configs that contain it to
-        // be reloaded when the asset changes
-        if (assetsToConfigs.containsKey(assetPath)) {
-          Set<String> configs = assetsToConfigs.get(assetPath);
-          configs.add(configPath);
-        }
-        else {
-          LinkedHashSet<String> configs = new LinkedHashSet<String>();
-          configs.add(configPath);
-          assetsToConfigs.put(assetPath, configs);
-        }
-      }
+    // only need to add the modified time if it isn't already monitored
+    if (!fileModTimes.containsKey(assetPath)) {
+      fileModTimes.put(assetPath, asset.lastModified());
     }
+
+    // map the asset to its configs and ids, allowing all configs that contain
+    // it to be reloaded when the asset changes
+    builder.addAsset(assetPath, configPath, ids);
   }
 
   /**
@@ -334,27 +886,26 @@ public class FooGlueServiceImpl
       }
     }
 
-    // cache out the file by crc32 of its contents
+    // cache out the file by the hash of its contents
     String srcAttr = isStyleSheet ? "href" : "src";
     String srcPath = fieldMap.get(srcAttr);
     if (srcPath == null) {
       return;
     }
     File rawFile = new File(rootDir, srcPath);
-    if (rawFile.exists()) {
+    if (!rawFile.exists()) {
+      fingerprints.remove(rawFile);
+    }
+    else {
       try {
 
-        // get the raw bytes of the asset source and create a crc value to
-        // identify unique contents
-        byte[] rawBytes = FileUtils.readFileToByteArray(rawFile);
-        byte[] cachedBytes = rawBytes;
-        CRC32 crc32 = new CRC32();
-        crc32.update(rawBytes);
-        long crcVal = crc32.getValue();
+        // get the hash of the asset contents to identify unique contents, the
+        // file is only read again if its size or modified time changed
+        String hash = fingerprints.getHash(rawFile);
         int lastSep = StringUtils.lastIndexOf(srcPath, ".");
         String prefix = StringUtils.substring(srcPath, 0, lastSep);
         String dotExt = StringUtils.substring(srcPath, lastSep);
-        String cachedSrc = prefix + "-" + crcVal + dotExt;
+        String cachedSrc = prefix + "-" + hash + dotExt;
 
         // we are choosing to not overwrite any file that exists in the cache
         // if a file changes from min to not it will need to be removed from
@@ -369,33 +920,56 @@ public class FooGlueServiceImpl
           boolean alreadyMinified = StringUtils.contains(cachedSrc, "min.")
             || StringUtils.contains(cachedSrc, "min-");
 
-          // if we are minifiying try to compress the file, otherwise we are
-          // just copying the original file
-          if (minifyAssets && !alreadyMinified) {
-            ByteArrayInputStream bais = new ByteArrayInputStream(rawBytes);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+          if (minifyAssets && !alreadyMinified && minifier != null) {
+
+            // minify in the background, using a copy of the original under its
+            // own name until the minified file is ready and the config reloads
+            cachedSrc = prefix + "-" + hash + "-src" + dotExt;
+            File sourceFile = new File(cacheRoot, cachedSrc);
+            if (!sourceFile.exists()) {
+              cacheFiles.copy(rawFile, sourceFile);
+              gzipCacheFile(sourceFile);
+            }
+            minifyInBackground(rawFile, cacheFile, isStyleSheet);
+          }
+          else {
+
+            // only one thread, or server sharing the cache directory, makes
+            // the file, the others wait and use it once it is made
+            CacheFiles.Lock lock = cacheFiles.lock(cacheFile);
             try {
-              if (isStyleSheet) {
-                FooGlueCompressor.compressStyleSheet(bais, baos);
+              if (!cacheFile.exists()) {
+
+                // if we are minifiying try to compress the file, otherwise we
+                // are just copying the original file
+                byte[] rawBytes = FileUtils.readFileToByteArray(rawFile);
+                byte[] cachedBytes = rawBytes;
+                if (minifyAssets && !alreadyMinified) {
+                  try {
+                    cachedBytes = minify(rawBytes, isStyleSheet);
+                  }
+                  catch (Exception e) {
+                    // do nothing, keep the original content
+                    LOG.error("Error during minification: " + srcAttr, e);
+                  }
+                }
+
+                // write the file out to the cache, either minified or not, the
+                // parent directories of the file will be created in the cache
+                // dir if they don't already exist. the file is renamed into
+                // place so it is never seen partially written
+                cacheFiles.write(cacheFile, cachedBytes);
+                gzipCacheFile(cacheFile);
               }
-              else {
-                FooGlueCompressor.compressJavaScript(bais, baos);
-              }
-              cachedBytes = baos.toByteArray();
             }
-            catch (Exception e) {
-              // do nothing, keep the original content
-              LOG.error("Error during minification: " + srcAttr, e);
+            finally {
+              lock.release();
             }
           }
-
-          // write the file out to the cache, either minified or not, the parent
-          // directories of the file will be created in the cache dir if they
-          // don't already exist
-          FileUtils.writeByteArrayToFile(cacheFile, cachedBytes);
         }
 
         // change the source of the file to the cache source
+        fingerprints.setCached(rawFile, cachedSrc);
         fieldMap.put(srcAttr, cacheDir + cachedSrc);
       }
       catch (IOException e) {
@@ -406,368 +980,1555 @@ public class FooGlueServiceImpl
   }
 
   /**
-   * <p>Loads a single fooglue asset configuration.</p>
-   * 
-   * <p>Assets are the css, scripts, and metadata for a single entry inside of a
-   * single configuration file. A config file can contain multiple entries each
-   * of which would be loaded separately. Assets are linked to a unique id setup
-   * in the config file for each entry.</p>
-   * 
-   * @param asset The asset entry.
-   * @param configPath The configuration file path for this asset.
-   * @param isGlobal Is this a global asset configuration.
+   * Returns the settings cached files are made with. Cached files made with
+   * different settings can't be reused.
    */
-  private void loadAsset(JsonNode asset, String configPath, boolean isGlobal) {
+  private String getCacheSettings() {
+    FooGlueCompressor.Options options = new FooGlueCompressor.Options();
+    return "minify=" + minifyAssets + ",charset=" + options.charset
+      + ",lineBreakPos=" + options.lineBreakPos + ",munge=" + options.munge
+      + ",preserveAllSemiColons=" + options.preserveAllSemiColons
+      + ",disableOptimizations=" + options.disableOptimizations + ",gzip="
+      + (gzipAssets ? gzipMinSize : -1);
+  }
 
-    // map to hold the configuration for the url or global
-    Map<String, Object> curAssets = new LinkedHashMap<String, Object>();
+  /**
+   * Reads the manifest of cached assets left in the cache directory, so assets
+   * that haven't changed since it was written aren't hashed or minified again.
+   * If the cached files were made with different settings they are removed.
+   */
+  private void readCacheManifest() {
 
-    // get all ids, a single asset config can have multiple ids it is linked to
-    List<String> ids = new ArrayList<String>();
-    if (asset.has("id")) {
-      JsonNode idNode = asset.get("id");
-      ids = JSONUtils.getStringValues(idNode);
+    File cacheRoot = new File(cacheDir);
+    File manifest = new File(cacheRoot, CACHE_MANIFEST);
+    if (!manifest.exists()) {
+      return;
     }
-
-    // link the ids to the config, each id is unique
-    for (String id : ids) {
-      idToConfig.put(id, configPath);
+    try {
+      int read = fingerprints.readManifest(manifest, getCacheSettings(),
+        cacheRoot);
+      if (read < 0 && sharedCacheDir) {
+        LOG.info("Cache settings changed, ignoring shared cache manifest");
+      }
+      else if (read < 0) {
+        LOG.info("Cache settings changed, clearing cache: " + cacheDir);
+        FileUtils.cleanDirectory(cacheRoot);
+      }
+      else {
+        LOG.info("Reusing " + read + " cached assets from: " + cacheDir);
+      }
     }
-
-    // if no ids and not global and not named then ignore
-    if (ids.isEmpty() && !isGlobal) {
-      return;
+    catch (IOException e) {
+      // do nothing, assets are hashed and cached again
+      LOG.warn("Error reading cache manifest: " + manifest.getPath(), e);
     }
+  }
 
-    // add the title
-    String title = JSONUtils.getStringValue(asset, "title");
-    if (StringUtils.isNotBlank(title)) {
-      curAssets.put(FooGlueConstants.TITLE, resolveAlias(title));
-    }
+  /**
+   * Writes the manifest of cached assets to the cache directory.
+   */
+  private void writeCacheManifest() {
 
-    // loop through the meta tag configurations
-    if (asset.has("meta")) {
-      List<Map<String, String>> metas = new ArrayList<Map<String, String>>();
-      for (JsonNode meta : asset.get("meta")) {
-        Map<String, String> fieldMap = resolveAliases(getAttributes(meta));
-        if (fieldMap.size() > 0) {
-          metas.add(fieldMap);
-        }
+    if (!cacheAssets || cacheDir == null || !new File(cacheDir).exists()) {
+      return;
+    }
+    File manifest = new File(cacheDir, CACHE_MANIFEST);
+    synchronized (fingerprints) {
+      try {
+        fingerprints.writeManifest(manifest, getCacheSettings(), cacheFiles);
       }
-
-      // add meta list to asset map if anything to add
-      if (metas.size() > 0) {
-        curAssets.put(FooGlueConstants.METAS, metas);
+      catch (IOException e) {
+        LOG.warn("Error writing cache manifest: " + manifest.getPath(), e);
       }
     }
+  }
 
-    // loop through the scripts
-    if (asset.has("scripts")) {
-      List<Map<String, String>> scripts = new ArrayList<Map<String, String>>();
-      for (JsonNode script : asset.get("scripts")) {
-
-        // scripts can be shorthand of just the href, and can be an alias
-        Map<String, String> fieldMap = null;
-        if (script instanceof TextNode) {
+  /**
+   * Returns a factory for named daemon threads, so background work never keeps
+   * the jvm from exiting.
+   */
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
 
-          String src = ((TextNode)script).asText();
-          src = resolveAlias(src);
-          fieldMap = new LinkedHashMap<String, String>();
-          fieldMap.put("type", "text/javascript");
-          fieldMap.put("src", src);
-        }
-        else {
-          fieldMap = resolveAliases(getAttributes(script));
-        }
+      private final AtomicInteger count = new AtomicInteger();
 
-        // minify and cache the script if possible, if not use the original
-        String scriptPath = fieldMap.get("src");
-        if (fieldMap.size() > 0 && StringUtils.isNotBlank(scriptPath)) {
-          try {
-            scripts.add(fieldMap);
-            if (cacheAssets) {
-              compressAndCache(fieldMap, false);
-            }
-          }
-          catch (Exception e) {
-            LOG.error("Error caching/minifying, using original script: "
-              + scriptPath);
-          }
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-"
+          + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
 
-          // monitor the script for changes
-          monitorAsset(scriptPath, configPath);
-        }
+  /**
+   * Compresses the bytes with gzip at the best compression level.
+   */
+  private static byte[] gzip(byte[] rawBytes)
+    throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOut = new GZIPOutputStream(baos) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
       }
+    };
+    gzipOut.write(rawBytes);
+    gzipOut.close();
+    return baos.toByteArray();
+  }
+
+  /**
+   * Writes a gzipped copy of the cache file next to it, named the same with a
+   * .gz extension, when gzipping assets. Files under the minimum size, or that
+   * don't get any smaller, don't have a gzipped copy. The copy is named after
+   * the fingerprinted cache file, so it changes along with it.
+   * 
+   * @param cacheFile The cache file, already written.
+   */
+  private void gzipCacheFile(File cacheFile) {
 
-      // add script list to asset map if anything to add
-      if (scripts.size() > 0) {
-        curAssets.put(FooGlueConstants.SCRIPTS, scripts);
+    if (!gzipAssets || cacheFile.length() < gzipMinSize) {
+      return;
+    }
+    File gzipFile = new File(cacheFile.getPath()
+      + FooGlueConstants.GZIP_EXT);
+    try {
+      byte[] rawBytes = FileUtils.readFileToByteArray(cacheFile);
+      byte[] gzipped = gzip(rawBytes);
+      if (gzipped.length < rawBytes.length) {
+        cacheFiles.write(gzipFile, gzipped);
       }
     }
+    catch (IOException e) {
+      // do nothing, servers compress the original
+      LOG.warn("Error gzipping: " + cacheFile.getPath(), e);
+    }
+  }
 
-    // loop through the stylesheets
-    if (asset.has("links")) {
-      List<Map<String, String>> links = new ArrayList<Map<String, String>>();
-      for (JsonNode link : asset.get("links")) {
+  /**
+   * Minifies script or stylesheet source.
+   */
+  private static byte[] minify(byte[] rawBytes, boolean isStyleSheet)
+    throws IOException {
+    ByteArrayInputStream bais = new ByteArrayInputStream(rawBytes);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    if (isStyleSheet) {
+      FooGlueCompressor.compressStyleSheet(bais, baos);
+    }
+    else {
+      FooGlueCompressor.compressJavaScript(bais, baos);
+    }
+    return baos.toByteArray();
+  }
 
-        // scripts can be shorthand of just the href, and can be an alias
-        Map<String, String> fieldMap = null;
-        if (link instanceof TextNode) {
+  /**
+   * Queues an asset to be minified into the cache file in the background,
+   * unless it is already queued or was abandoned. Once the minified file is
+   * written the asset is reported as changed, reloading the configs that use
+   * it so their tags switch to the minified file.
+   * 
+   * @param rawFile The original asset file.
+   * @param cacheFile The cache file to minify into.
+   * @param isStyleSheet Is the asset a stylesheet or a script.
+   */
+  private void minifyInBackground(final File rawFile, final File cacheFile,
+    final boolean isStyleSheet) {
 
-          String href = ((TextNode)link).asText();
-          href = resolveAlias(href);
-          fieldMap = new LinkedHashMap<String, String>();
-          fieldMap.put("rel", "stylesheet");
-          fieldMap.put("type", "text/css");
-          fieldMap.put("href", href);
-        }
-        else {
-          fieldMap = resolveAliases(getAttributes(link));
-        }
+    final String cachePath = cacheFile.getPath();
+    if (abandonedMinifies.contains(cachePath)
+      || pendingMinifies.putIfAbsent(cachePath, Boolean.TRUE) != null) {
+      return;
+    }
 
-        // minify and cache the stylesheet if possible, if not use the original
-        String stylePath = fieldMap.get("href");
-        if (fieldMap.size() > 0 && stylePath != null) {
+    try {
+      minifier.execute(new Runnable() {
+        public void run() {
           try {
-            links.add(fieldMap);
-            if (cacheAssets) {
-              compressAndCache(fieldMap, true);
-            }
+            minifyToCache(rawFile, cacheFile, isStyleSheet);
           }
-          catch (Exception e) {
-            LOG.error("Error caching/minifying, using original stylesheet: "
-              + stylePath);
+          finally {
+            pendingMinifies.remove(cachePath);
           }
-
-          // monitor the stylesheet for changes
-          monitorAsset(stylePath, configPath);
         }
-      }
-
-      // add links list to asset map if anything to add
-      if (links.size() > 0) {
-        curAssets.put(FooGlueConstants.LINKS, links);
-      }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      // shutting down, nothing to do
+      pendingMinifies.remove(cachePath);
     }
+  }
 
-    // add the current assets as either global or for a specific path
-    if (curAssets.size() > 0) {
+  /**
+   * Minifies an asset into the cache file within the minify timeout. Assets
+   * that fail or take too long to minify are abandoned and keep using the
+   * copy of the original. The compression itself runs on its own thread so a
+   * pathological asset can't hold up the rest of the queue. The asset is
+   * minified in memory first, the cache file is only locked to check it wasn't
+   * written meanwhile and to write it, so other servers sharing the cache
+   * directory are never held up by the minification.
+   */
+  private void minifyToCache(File rawFile, File cacheFile,
+    final boolean isStyleSheet) {
 
-      // setup as global and id based resources
-      if (isGlobal) {
+    String cachePath = cacheFile.getPath();
+    Future<byte[]> compressed = null;
+    try {
 
-        // if global and caching we have to clear all caches because we don't
-        // know what the global values touch
-        assets.put(FooGlueConstants.GLOBAL, curAssets);
-        if (cacheAssets) {
-          scriptsCache.clear();
-          metaCache.clear();
-          linksCache.clear();
-          titleCache.clear();
-        }
-      }
-      else {
-        for (String id : ids) {
-
-          // if not a global config we can just clear the cache for the single
-          // id or ids contained in the config
-          assets.put(id, curAssets);
-          if (cacheAssets) {
-            scriptsCache.remove(id);
-            metaCache.remove(id);
-            linksCache.remove(id);
-            titleCache.remove(id);
+      // another server sharing the cache directory may have minified it
+      if (!cacheFile.exists()) {
+        final byte[] rawBytes = FileUtils.readFileToByteArray(rawFile);
+        compressed = compressors.submit(new Callable<byte[]>() {
+          public byte[] call()
+            throws Exception {
+            return minify(rawBytes, isStyleSheet);
+          }
+        });
+        byte[] minified = compressed.get(minifyTimeout, TimeUnit.MILLISECONDS);
+        CacheFiles.Lock lock = cacheFiles.lock(cacheFile);
+        try {
+          if (!cacheFile.exists()) {
+            cacheFiles.write(cacheFile, minified);
+            gzipCacheFile(cacheFile);
           }
         }
+        finally {
+          lock.release();
+        }
       }
+
+      // let the reloader switch the tags over to the minified file
+      minifiedAssets.add(rawFile.getPath());
+    }
+    catch (TimeoutException e) {
+      compressed.cancel(true);
+      abandonedMinifies.add(cachePath);
+      LOG.warn("Minifying " + rawFile.getPath() + " took longer than "
+        + minifyTimeout + "ms, using the original");
+    }
+    catch (RejectedExecutionException e) {
+      // every compressor is busy, or shutting down, the asset is queued again
+      // the next time it is loaded
+      LOG.warn("No compressor free for " + rawFile.getPath()
+        + ", using the original");
     }
+    catch (InterruptedException e) {
+      // shutting down, nothing to do
+    }
+    catch (Exception e) {
+      abandonedMinifies.add(cachePath);
+      LOG.error("Error during minification, using the original: "
+        + rawFile.getPath(), e);
+    }
+  }
+
+  /**
+   * Returns the assets that finished minifying since the last call.
+   */
+  private List<String> drainMinifiedAssets() {
+    List<String> drained = new ArrayList<String>();
+    String assetPath = null;
+    while ((assetPath = minifiedAssets.poll()) != null) {
+      drained.add(assetPath);
+    }
+    return drained;
   }
 
   /**
-   * Loads a single fooglue configuration file. This clears any cache that is
-   * associated with the ids in this configuration.
+   * Minifies and caches an asset source file once per load, no matter how many
+   * entries use it or how many threads ask for it at the same time. Threads
+   * asking for an asset that is already being cached wait for it to finish.
    * 
-   * @param configFile The configuration file to load.
+   * @param fieldMap The asset key values Map.
+   * @param isStyleSheet Is the asset a stylesheet or a script.
    */
-  private void loadAssetConfig(File configFile) {
+  private void cacheAsset(Map<String, String> fieldMap,
+    final boolean isStyleSheet)
+    throws Exception {
 
-    // ignore if the config file doesn't exist
-    String configPath = configFile.getPath();
-    if (!configFile.exists()) {
-      LOG.warn("Config file doesn't exist: " + configPath + ", ignoring");
+    final String srcAttr = isStyleSheet ? "href" : "src";
+    final String srcPath = fieldMap.get(srcAttr);
+    if (srcPath == null) {
       return;
     }
 
-    // set the last modified for the file before parsing in case of errors
-    long lastModified = configFile.lastModified();
-    fileModTimes.put(configPath, lastModified);
-
-    // add the to the config file set
-    configSet.add(configPath);
+    // the first thread to ask for the asset caches it, others wait for it
+    FutureTask<String> cached = new FutureTask<String>(new Callable<String>() {
+      public String call() {
+        Map<String, String> cachedMap = new HashMap<String, String>();
+        cachedMap.put(srcAttr, srcPath);
+        compressAndCache(cachedMap, isStyleSheet);
+        return cachedMap.get(srcAttr);
+      }
+    });
+    FutureTask<String> existing = cachedAssetPaths.putIfAbsent(srcPath
+      + (isStyleSheet ? ":css" : ":js"), cached);
+    if (existing == null) {
+      cached.run();
+      existing = cached;
+    }
+    fieldMap.put(srcAttr, existing.get());
+  }
 
-    try {
+  /**
+   * <p>Loads a single fooglue asset configuration.</p>
+   * 
+   * <p>Assets are the css, scripts, and metadata for a single entry inside of a
+   * single configuration file. A config file can contain multiple entries each
+   * of which would be loaded separately. Assets are linked to a unique id setup
+   * in the config file for each entry.</p>
+   * 
+   * @param asset The asset entry.
+   * @param configPath The configuration file path for this asset.
+   * @param isGlobal Is this a global asset configuration.
+   * @param builder The generation the compiled entries are added to.
+   */
+  private void loadAsset(JsonNode asset, String configPath, boolean isGlobal,
+    AssetSnapshot.Builder builder) {
 
-      // processing global file or content file
-      String filename = configFile.getName();
-      boolean isGlobal = StringUtils.equals(filename, globalConfig);
-      ObjectMapper mapper = new ObjectMapper();
-      JsonNode root = mapper.readValue(configFile, JsonNode.class);
+    // get all ids, a single asset config can have multiple ids it is linked to
+    List<String> ids = new ArrayList<String>();
+    if (asset.has("id")) {
+      JsonNode idNode = asset.get("id");
+      ids = JSONUtils.getStringValues(idNode);
+    }
 
-      // global then load aliases
-      if (isGlobal) {
-        aliasesCache.putAll(getAttributes(root.get("aliases")));
+    // link the ids to the config, each id is unique
+    for (String id : ids) {
+      String otherConfig = builder.putIdConfig(id, configPath);
+      if (otherConfig != null && !StringUtils.equals(otherConfig, configPath)) {
+        LOG.warn("Id " + id + " in " + configPath + " is already defined in "
+          + otherConfig);
       }
+    }
 
-      // config files can hold multiple entries
-      if (root instanceof ArrayNode) {
-        for (JsonNode asset : root) {
-          loadAsset(asset, configPath, false);
-        }
+    // if no ids and not global and not named then ignore
+    if (ids.isEmpty() && !isGlobal) {
+      return;
+    }
+
+    // add the title
+    String title = JSONUtils.getStringValue(asset, "title");
+    if (StringUtils.isNotBlank(title)) {
+      title = resolveAlias(title, builder);
+    }
+    else {
+      title = null;
+    }
+
+    // sections defined the same as when the entry was last loaded are reused
+    // as is, without caching or compiling them again
+    String definitionKey = isGlobal ? FooGlueConstants.GLOBAL : ids.get(0);
+    AssetSnapshot base = builder.getBase();
+    AssetEntry previous = isGlobal ? base.getGlobal() : base
+      .getEntry(definitionKey);
+    JsonNode previousDef = getReusableDefinition(asset, definitionKey,
+      previous, builder);
+
+    TagTemplate[] metas = (previousDef != null && sameSection(previousDef,
+      asset, "meta")) ? previous.getMetas() : compileMetas(asset, builder);
+    List<String> assetIds = isGlobal ? Collections
+      .singletonList(FooGlueConstants.GLOBAL) : ids;
+    boolean reuseScripts = previousDef != null
+      && sameSection(previousDef, asset, "scripts");
+    TagTemplate[] scripts = reuseScripts ? previous.getSourceScripts()
+      : compileScripts(asset, configPath, assetIds, builder);
+    boolean reuseLinks = previousDef != null
+      && sameSection(previousDef, asset, "links");
+    TagTemplate[] links = reuseLinks ? previous.getSourceLinks()
+      : compileLinks(asset, configPath, assetIds, builder);
+    builder.putDefinition(definitionKey, asset);
+
+    // a full reload starts without any assets mapped, reused sections aren't
+    // compiled so their assets are mapped here instead
+    if (builder.isFull()) {
+      if (reuseScripts) {
+        monitorSection(asset, "scripts", false, configPath, assetIds, builder);
       }
-      else {
-        loadAsset(root, configPath, isGlobal);
+      if (reuseLinks) {
+        monitorSection(asset, "links", true, configPath, assetIds, builder);
       }
     }
-    catch (Exception e) {
-      LOG.error("Error parsing config: " + configPath, e);
+
+    // compile the entry, empty entries only replace existing entries
+    AssetEntry entry = new AssetEntry(title, metas, scripts, links);
+    if (isGlobal) {
+      if (!entry.isEmpty() || previous != null) {
+        builder.setGlobal(entry);
+      }
+    }
+    else {
+      for (String id : ids) {
+        if (!entry.isEmpty() || base.getEntry(id) != null) {
+          builder.putEntry(id, entry);
+        }
+      }
     }
   }
 
   /**
-   * Load or reload all asset configuration files.
+   * Monitors the scripts or stylesheets of a section reused from the previous
+   * generation, mapping them to the config and ids without caching or
+   * compiling them again.
+   * 
+   * @param asset The asset entry.
+   * @param section The scripts or links section.
+   * @param isStyleSheet Is the section stylesheets or scripts.
+   * @param configPath The configuration file path for this asset.
+   * @param ids The ids of the entry.
+   * @param builder The generation being loaded.
    */
-  private void loadAllAssetConfigFiles() {
+  private void monitorSection(JsonNode asset, String section,
+    boolean isStyleSheet, String configPath, List<String> ids,
+    AssetSnapshot.Builder builder) {
 
-    // loop through resources to load asset configs if any exist
-    if (configResources != null) {
-      for (Resource configResource : configResources) {
-        try {
-          File assetConfig = configResource.getFile();
-          LOG.info("Loading asset config: " + assetConfig.getPath());
-          loadAssetConfig(assetConfig);
-        }
-        catch (Exception e) {
-          // do nothing, continue with other files
-        }
+    if (!asset.has(section)) {
+      return;
+    }
+    for (JsonNode tag : asset.get(section)) {
+      Map<String, String> fieldMap = isStyleSheet ? getLinkAttributes(tag,
+        builder) : getScriptAttributes(tag, builder);
+      String assetPath = fieldMap.get(isStyleSheet ? "href" : "src");
+      if (StringUtils.isNotBlank(assetPath)) {
+        monitorAsset(assetPath, configPath, ids, builder);
       }
     }
   }
 
-  private String getCacheKey(String id, Locale locale) {
-    return id + "_" + locale.getLanguage() + "_" + locale.getCountry();
+  /**
+   * Returns the definition the entry was last loaded with if its sections can
+   * be reused, or null if the entry has to be compiled from scratch.
+   */
+  private static JsonNode getReusableDefinition(JsonNode asset,
+    String definitionKey, AssetEntry previous, AssetSnapshot.Builder builder) {
+    JsonNode previousDef = builder.getDefinition(definitionKey);
+    if (previous == null || previousDef == null
+      || !sameSection(previousDef, asset, "id")) {
+      return null;
+    }
+    return previousDef;
+  }
+
+  /**
+   * Returns true if the named section is defined the same in both entries.
+   */
+  private static boolean sameSection(JsonNode previousDef, JsonNode asset,
+    String section) {
+    JsonNode previousSection = previousDef.get(section);
+    JsonNode newSection = asset.get(section);
+    return (previousSection == null) ? newSection == null : previousSection
+      .equals(newSection);
   }
 
   /**
-   * Creates and returns a script tag.
+   * Compiles the meta tags of an entry.
    * 
-   * @param scriptAttrs The attributes of the script tag.
-   * @param locale The current locale used to resolve properties.
+   * @param asset The asset entry.
+   * @param builder The generation being loaded.
    * 
-   * @return A script tag.
+   * @return The compiled meta tags.
    */
-  private String createScriptTag(Map<String, String> scriptAttrs, Locale locale) {
-
-    StringBuilder scriptTagBuilder = new StringBuilder();
-
-    String type = scriptAttrs.get("type");
-    String src = resolveProperty(scriptAttrs.get("src"), locale);
-    scriptTagBuilder.append("<script");
-    if (StringUtils.isNotBlank(type)) {
-      scriptTagBuilder.append(" type=\"" + type + "\"");
-    }
-    if (StringUtils.isNotBlank(src)) {
+  private TagTemplate[] compileMetas(JsonNode asset,
+    AssetSnapshot.Builder builder) {
 
-      // if script is local, set the hostname, allows cookieless domains, and
-      // cdn serving
-      if (StringUtils.startsWith(src, "/")) {
-        src = assetHost + src;
+    // loop through the meta tag configurations
+    List<TagTemplate> metas = new ArrayList<TagTemplate>();
+    if (asset.has("meta")) {
+      for (JsonNode meta : asset.get("meta")) {
+        Map<String, String> fieldMap = resolveAliases(getAttributes(meta),
+          builder);
+        if (fieldMap.size() > 0) {
+          metas.add(TagTemplate.compileMeta(AssetTag.fromAttributes(fieldMap),
+            tagResolver));
+        }
       }
-      scriptTagBuilder.append(" src=\"" + src + "\"");
     }
-    scriptTagBuilder.append(">");
+    return metas.toArray(TagTemplate.EMPTY);
+  }
 
-    String embedScript = resolveProperty(scriptAttrs.get("embed"), locale);
-    if (StringUtils.isNotBlank(embedScript)) {
-      scriptTagBuilder.append("\n" + getAssetSource(embedScript) + "\n");
+  /**
+   * Returns the attributes of a script with aliases resolved. Scripts can be
+   * shorthand of just the src, and can be an alias.
+   */
+  private Map<String, String> getScriptAttributes(JsonNode script,
+    AssetSnapshot.Builder builder) {
+
+    if (script instanceof TextNode) {
+      String src = ((TextNode)script).asText();
+      src = resolveAlias(src, builder);
+      Map<String, String> fieldMap = new LinkedHashMap<String, String>();
+      fieldMap.put("type", "text/javascript");
+      fieldMap.put("src", src);
+      return fieldMap;
     }
-    scriptTagBuilder.append("</script>");
+    return resolveAliases(getAttributes(script), builder);
+  }
 
-    return scriptTagBuilder.toString();
+  /**
+   * Returns the attributes of a link with aliases resolved. Stylesheets can be
+   * shorthand of just the href, and can be an alias.
+   */
+  private Map<String, String> getLinkAttributes(JsonNode link,
+    AssetSnapshot.Builder builder) {
+
+    if (link instanceof TextNode) {
+      String href = ((TextNode)link).asText();
+      href = resolveAlias(href, builder);
+      Map<String, String> fieldMap = new LinkedHashMap<String, String>();
+      fieldMap.put("rel", "stylesheet");
+      fieldMap.put("type", "text/css");
+      fieldMap.put("href", href);
+      return fieldMap;
+    }
+    return resolveAliases(getAttributes(link), builder);
   }
 
   /**
-   * Creates and returns a meta tag.
+   * Compiles the scripts of an entry, caching and minifying the script files
+   * and monitoring them for changes.
    * 
-   * @param metaAttrs The attributes of the meta tag.
-   * @param locale The current locale used to resolve properties.
+   * @param asset The asset entry.
+   * @param configPath The configuration file path for this asset.
+   * @param ids The ids of the entry.
+   * @param builder The generation being loaded.
    * 
-   * @return A meta tag.
+   * @return The compiled scripts.
    */
-  private String createMetaTag(Map<String, String> metaAttrs, Locale locale) {
+  private TagTemplate[] compileScripts(JsonNode asset, String configPath,
+    List<String> ids, AssetSnapshot.Builder builder) {
+
+    // loop through the scripts
+    List<TagTemplate> scripts = new ArrayList<TagTemplate>();
+    if (asset.has("scripts")) {
+      for (JsonNode script : asset.get("scripts")) {
+
+        Map<String, String> fieldMap = getScriptAttributes(script, builder);
+
+        // minify and cache the script if possible, if not use the original
+        String scriptPath = fieldMap.get("src");
+        if (fieldMap.size() > 0 && StringUtils.isNotBlank(scriptPath)) {
+          try {
+            if (cacheAssets) {
+              cacheAsset(fieldMap, false);
+            }
+          }
+          catch (Exception e) {
+            LOG.error("Error caching/minifying, using original script: "
+              + scriptPath);
+          }
+          scripts.add(TagTemplate.compileScript(
+            AssetTag.fromAttributes(fieldMap), tagResolver));
 
-    StringBuilder metaTagBuilder = new StringBuilder();
-    metaTagBuilder.append("<meta");
-    for (Entry<String, String> metaAttr : metaAttrs.entrySet()) {
-      String key = resolveProperty(metaAttr.getKey(), locale);
-      String value = resolveProperty(metaAttr.getValue(), locale);
-      if (StringUtils.isNotBlank(key)) {
-        metaTagBuilder.append(" " + key + "=\"");
+          // monitor the script for changes
+          monitorAsset(scriptPath, configPath, ids, builder);
+        }
       }
-      metaTagBuilder.append(value + "\"");
     }
-    metaTagBuilder.append(" />");
-    return metaTagBuilder.toString();
+    return scripts.toArray(TagTemplate.EMPTY);
   }
 
   /**
-   * Creates and returns a link tag.
+   * Compiles the links of an entry, caching and minifying the stylesheets and
+   * monitoring them for changes.
    * 
-   * @param linkAttrs The attributes of the link tag.
-   * @param locale The current locale used to resolve properties.
+   * @param asset The asset entry.
+   * @param configPath The configuration file path for this asset.
+   * @param ids The ids of the entry.
+   * @param builder The generation being loaded.
    * 
-   * @return A link tag.
+   * @return The compiled links.
    */
-  private String createLinkTag(Map<String, String> linkAttrs, Locale locale) {
+  private TagTemplate[] compileLinks(JsonNode asset, String configPath,
+    List<String> ids, AssetSnapshot.Builder builder) {
+
+    // loop through the stylesheets
+    List<TagTemplate> links = new ArrayList<TagTemplate>();
+    if (asset.has("links")) {
+      for (JsonNode link : asset.get("links")) {
 
-    StringBuilder linkTagBuilder = new StringBuilder();
+        Map<String, String> fieldMap = getLinkAttributes(link, builder);
 
-    linkTagBuilder.append("<link");
-    for (Entry<String, String> linkAttr : linkAttrs.entrySet()) {
-      String key = resolveProperty(linkAttr.getKey(), locale);
-      String value = resolveProperty(linkAttr.getValue(), locale);
-      if (StringUtils.isNotBlank(key)) {
+        // minify and cache the stylesheet if possible, if not use the original
+        String stylePath = fieldMap.get("href");
+        if (fieldMap.size() > 0 && stylePath != null) {
+          try {
+            if (cacheAssets) {
+              cacheAsset(fieldMap, true);
+            }
+          }
+          catch (Exception e) {
+            LOG.error("Error caching/minifying, using original stylesheet: "
+              + stylePath);
+          }
+          links.add(TagTemplate.compileLink(AssetTag.fromAttributes(fieldMap),
+            tagResolver));
 
-        // if the href is local, set the hostname
-        if (StringUtils.equals(key, "href")
-          && StringUtils.startsWith(value, "/")) {
-          value = assetHost + value;
+          // monitor the stylesheet for changes
+          monitorAsset(stylePath, configPath, ids, builder);
         }
-        linkTagBuilder.append(" " + key + "=\"");
       }
-      linkTagBuilder.append(value + "\"");
     }
-    linkTagBuilder.append(" />");
-
-    return linkTagBuilder.toString();
+    return links.toArray(TagTemplate.EMPTY);
   }
 
-  public FooGlueServiceImpl() {
+  /**
+   * Returns true if the tag can be joined into a bundle, a cached script or
+   * stylesheet without any attributes other than its type. Stylesheets with
+   * @import or @charset rules aren't joined, those rules only work at the
+   * start of a stylesheet.
+   */
+  private boolean isBundleable(TagTemplate tag, boolean isStyleSheet) {
+
+    if (!tag.isStatic()) {
+      return false;
+    }
+    AssetTag source = tag.getSource();
+    for (int i = 0; i < source.size(); i++) {
+      String name = source.getName(i);
+      String value = source.getValue(i);
+      boolean allowed = false;
+      if (isStyleSheet) {
+        allowed = StringUtils.equals(name, "href")
+          || (StringUtils.equals(name, "rel") && StringUtils.equals(value,
+            "stylesheet"))
+          || (StringUtils.equals(name, "type") && StringUtils.equals(value,
+            "text/css"));
+      }
+      else {
+        allowed = StringUtils.equals(name, "src")
+          || (StringUtils.equals(name, "type") && StringUtils.equals(value,
+            "text/javascript"));
+      }
+      if (!allowed) {
+        return false;
+      }
+    }
 
+    // only files already in the cache are bundled, not remote assets
+    String path = getAssetPath(tag, isStyleSheet);
+    return path != null && path.startsWith(cacheDir)
+      && isBundleableFile(path, isStyleSheet);
   }
 
-  public FooGlueServiceImpl(String rootDir, Resource[] configResources) {
-    this.rootDir = rootDir;
-    setConfigResources(configResources);
+  /**
+   * Returns true if the cached file exists and, for stylesheets, has no
+   * @import or @charset rules. Cached files are named by their contents and
+   * never change, so each is only checked once it exists.
+   */
+  private boolean isBundleableFile(String path, boolean isStyleSheet) {
+    Boolean bundleable = bundleableFiles.get(path);
+    if (bundleable == null) {
+      File file = new File(path);
+      if (!file.exists()) {
+        return false;
+      }
+      bundleable = Boolean.TRUE;
+      if (isStyleSheet) {
+        try {
+          String content = FileUtils.readFileToString(file, "UTF-8");
+          bundleable = !StringUtils.containsIgnoreCase(content, "@import")
+            && !StringUtils.containsIgnoreCase(content, "@charset");
+        }
+        catch (IOException e) {
+          bundleable = Boolean.FALSE;
+        }
+      }
+      bundleableFiles.put(path, bundleable);
+    }
+    return bundleable;
   }
 
   /**
-   * Initialize the fooglue service. Loads all of the configuration resources.
-   * Starts up the changes monitoring.
+   * Returns the directory of an asset path.
    */
-  public synchronized void initialize() {
+  private static String getAssetDir(String path) {
+    return StringUtils.substringBeforeLast(path, "/");
+  }
 
-    // setup the cache directory
-    if (StringUtils.isBlank(cacheDir)) {
+  /**
+   * Returns the path of the asset in the tag, the cached file for cached assets.
+   */
+  private static String getAssetPath(TagTemplate tag, boolean isStyleSheet) {
+    return tag.getSource().get(isStyleSheet ? "href" : "src");
+  }
+
+  /**
+   * Returns the scripts or stylesheets of the entry before bundling.
+   */
+  private static TagTemplate[] getSourceTags(AssetEntry entry,
+    boolean isStyleSheet) {
+    return isStyleSheet ? entry.getSourceLinks() : entry.getSourceScripts();
+  }
+
+  /**
+   * Returns true if both entries have the same scripts or stylesheets before
+   * bundling, or are both null.
+   */
+  private static boolean hasSameSources(AssetEntry entry, AssetEntry other,
+    boolean isStyleSheet) {
+    if (entry == null || other == null) {
+      return entry == other;
+    }
+    return Arrays.equals(getSourceTags(entry, isStyleSheet),
+      getSourceTags(other, isStyleSheet));
+  }
+
+  /**
+   * Adds to the count of ids using each script or stylesheet of an id, or
+   * subtracts from it for an id that no longer uses them.
+   */
+  private static void countAssetIds(TagTemplate[] tags, boolean isStyleSheet,
+    Map<String, Integer> counts, int delta) {
+    Set<String> counted = new HashSet<String>();
+    for (TagTemplate tag : tags) {
+      String path = getAssetPath(tag, isStyleSheet);
+      if (path != null && counted.add(path)) {
+        Integer count = counts.get(path);
+        int newCount = ((count != null) ? count : 0) + delta;
+        if (newCount > 0) {
+          counts.put(path, newCount);
+        }
+        else {
+          counts.remove(path);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the assets used by more ids than the shared bundle threshold.
+   */
+  private Set<String> getSharedAssets(Map<String, Integer> counts) {
+    Set<String> shared = new HashSet<String>();
+    for (Entry<String, Integer> count : counts.entrySet()) {
+      if (count.getValue() > sharedBundleIds) {
+        shared.add(count.getKey());
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * Plans the shared bundles of the scripts or stylesheets of a generation
+   * from the plan of the generation it is built from. Only the ids whose
+   * assets changed are counted again, every id if the threshold changed, and
+   * the shared bundles of the previous plan are kept if they are the same.
+   * 
+   * @param builder The loaded generation.
+   * @param isStyleSheet Plan the stylesheets or the scripts.
+   * 
+   * @return The plan, the previous plan if no assets changed.
+   */
+  private BundlePlan planBundles(AssetSnapshot.Builder builder,
+    boolean isStyleSheet) {
+
+    AssetSnapshot previous = builder.getBase();
+    BundlePlan plan = previous.getBundlePlan(isStyleSheet);
+    if (sharedBundleIds <= 0) {
+      return (plan.getThreshold() == sharedBundleIds) ? plan : new BundlePlan(
+        sharedBundleIds, Collections.<String, Integer> emptyMap(),
+        Collections.<String> emptySet(),
+        Collections.<String, TagTemplate> emptyMap());
+    }
+
+    // count the ids using each asset, ids can share a single entry
+    boolean recount = plan.getThreshold() != sharedBundleIds;
+    Map<String, AssetEntry> entries = builder.getEntries();
+    Map<String, AssetEntry> counted = recount ? Collections
+      .<String, AssetEntry> emptyMap() : previous.getEntries();
+    Map<String, Integer> counts = new HashMap<String, Integer>(recount
+      ? Collections.<String, Integer> emptyMap() : plan.getCounts());
+    Set<String> allIds = new HashSet<String>(entries.keySet());
+    allIds.addAll(counted.keySet());
+    boolean changed = recount;
+    for (String id : allIds) {
+      AssetEntry entry = entries.get(id);
+      AssetEntry old = counted.get(id);
+      if (!hasSameSources(entry, old, isStyleSheet)) {
+        changed = true;
+        if (old != null) {
+          countAssetIds(getSourceTags(old, isStyleSheet), isStyleSheet, counts,
+            -1);
+        }
+        if (entry != null) {
+          countAssetIds(getSourceTags(entry, isStyleSheet), isStyleSheet,
+            counts, 1);
+        }
+      }
+    }
+    if (!changed) {
+      return plan;
+    }
+
+    Set<String> sharedPaths = getSharedAssets(counts);
+    Map<String, TagTemplate> sharedTags = makeSharedBundles(entries,
+      sharedPaths, isStyleSheet);
+    if (sharedTags.equals(plan.getSharedTags())) {
+      sharedTags = plan.getSharedTags();
+    }
+    return new BundlePlan(sharedBundleIds,
+      Collections.unmodifiableMap(counts),
+      Collections.unmodifiableSet(sharedPaths), sharedTags);
+  }
+
+  /**
+   * Returns the runs of consecutive shared assets in the scripts or
+   * stylesheets of an id, stylesheets only from the same directory. An asset
+   * listed twice ends the run.
+   */
+  private List<List<String>> getSharedRuns(TagTemplate[] tags,
+    Set<String> sharedPaths, boolean isStyleSheet) {
+
+    List<List<String>> runs = new ArrayList<List<String>>();
+    List<String> run = null;
+    String runDir = null;
+    Set<String> seen = new HashSet<String>();
+    for (TagTemplate tag : tags) {
+      String path = getAssetPath(tag, isStyleSheet);
+      if (path == null || !sharedPaths.contains(path)
+        || !isBundleable(tag, isStyleSheet) || !seen.add(path)) {
+        run = null;
+        continue;
+      }
+      String dir = getAssetDir(path);
+      if (run == null || (isStyleSheet && !dir.equals(runDir))) {
+        run = new ArrayList<String>();
+        runs.add(run);
+      }
+      run.add(path);
+      runDir = dir;
+    }
+    return runs;
+  }
+
+  /**
+   * Records the asset next to a shared asset in a run, or an empty string for
+   * none or if ids disagree on it.
+   */
+  private static void linkAsset(Map<String, String> links, String path,
+    String linked) {
+    String current = links.get(path);
+    if (current == null) {
+      links.put(path, linked);
+    }
+    else if (!current.equals(linked)) {
+      links.put(path, "");
+    }
+  }
+
+  /**
+   * <p>Makes the shared bundles of the shared scripts or stylesheets. Two
+   * shared assets are only bundled together if every id using either of them
+   * lists them one right after the other, so every shared bundle is a run of
+   * assets that appears whole and in the same order in every id using it.
+   * Ids then use the same bundles without running an asset they don't list,
+   * or running any asset out of the order they list it in. A lone shared
+   * asset is used as is.</p>
+   * 
+   * @param entries The entries by id.
+   * @param sharedPaths The paths of the shared assets.
+   * @param isStyleSheet Are the assets stylesheets or scripts.
+   * 
+   * @return The shared bundle tag by the path of each shared asset.
+   */
+  private Map<String, TagTemplate> makeSharedBundles(
+    Map<String, AssetEntry> entries, Set<String> sharedPaths,
+    boolean isStyleSheet) {
+
+    // the shared runs of each id, and the asset before and after each shared
+    // asset when every id agrees on it
+    Map<String, TagTemplate> tags = new HashMap<String, TagTemplate>();
+    List<List<String>> runs = new ArrayList<List<String>>();
+    Map<String, String> next = new HashMap<String, String>();
+    Map<String, String> previous = new HashMap<String, String>();
+    for (String id : new TreeSet<String>(entries.keySet())) {
+      TagTemplate[] sourceTags = getSourceTags(entries.get(id), isStyleSheet);
+      for (TagTemplate tag : sourceTags) {
+        String path = getAssetPath(tag, isStyleSheet);
+        if (path != null && !tags.containsKey(path)) {
+          tags.put(path, tag);
+        }
+      }
+      for (List<String> run : getSharedRuns(sourceTags, sharedPaths,
+        isStyleSheet)) {
+        runs.add(run);
+        for (int i = 0; i < run.size(); i++) {
+          linkAsset(next, run.get(i), (i + 1 < run.size()) ? run.get(i + 1)
+            : "");
+          linkAsset(previous, run.get(i), (i > 0) ? run.get(i - 1) : "");
+        }
+      }
+    }
+
+    // split the runs between assets that aren't always together, the same
+    // segment is in every run using it so each is only collected once
+    Map<String, List<String>> segments = new LinkedHashMap<String, List<String>>();
+    for (List<String> run : runs) {
+      List<String> segment = null;
+      for (int i = 0; i < run.size(); i++) {
+        String path = run.get(i);
+        boolean together = i > 0 && next.get(run.get(i - 1)).equals(path)
+          && previous.get(path).equals(run.get(i - 1));
+        if (!together) {
+          segment = segments.containsKey(path) ? null : new ArrayList<String>();
+          if (segment != null) {
+            segments.put(path, segment);
+          }
+        }
+        if (segment != null) {
+          segment.add(path);
+        }
+      }
+    }
+
+    Map<String, TagTemplate> sharedTags = new HashMap<String, TagTemplate>();
+    for (List<String> segment : segments.values()) {
+      List<TagTemplate> members = new ArrayList<TagTemplate>();
+      for (String path : segment) {
+        members.add(tags.get(path));
+      }
+      TagTemplate sharedTag = members.get(0);
+      if (members.size() > 1) {
+        try {
+          sharedTag = makeBundle(members, isStyleSheet);
+        }
+        catch (IOException e) {
+          LOG.error("Error bundling, using the shared assets apart", e);
+          continue;
+        }
+      }
+      for (String path : segment) {
+        sharedTags.put(path, sharedTag);
+      }
+    }
+    return Collections.unmodifiableMap(sharedTags);
+  }
+
+  /**
+   * <p>Bundles the scripts and stylesheets of the entries in the generation
+   * when bundling assets. Entries with the same assets as in the generation
+   * it is built from keep their bundles, unless the shared bundles changed,
+   * only the others are bundled again.</p>
+   * 
+   * <p>Assets used by more ids than the shared bundle threshold are put in
+   * shared bundles apart from the assets of each id, planned once for the
+   * generation, so pages using the same shared assets use the same bundles
+   * and browsers cache them once. The global assets are on every page and are
+   * bundled together.</p>
+   * 
+   * @param builder The loaded generation.
+   */
+  private void bundleEntries(AssetSnapshot.Builder builder) {
+
+    if (!bundleAssets || !cacheAssets) {
+      builder.setBundlePlan(false, BundlePlan.EMPTY);
+      builder.setBundlePlan(true, BundlePlan.EMPTY);
+      return;
+    }
+
+    // entries can only keep the bundles of a generation that was bundled
+    // with the same shared bundles
+    AssetSnapshot previous = builder.getBase();
+    BundlePlan scriptPlan = planBundles(builder, false);
+    BundlePlan linkPlan = planBundles(builder, true);
+    BundlePlan previousScripts = previous.getBundlePlan(false);
+    BundlePlan previousLinks = previous.getBundlePlan(true);
+    boolean keepBundles = previousScripts.getThreshold() >= 0
+      && previousLinks.getThreshold() >= 0
+      && scriptPlan.getSharedTags() == previousScripts.getSharedTags()
+      && linkPlan.getSharedTags() == previousLinks.getSharedTags();
+    builder.setBundlePlan(false, scriptPlan);
+    builder.setBundlePlan(true, linkPlan);
+
+    // bundle each distinct entry once
+    Map<String, AssetEntry> entries = builder.getEntries();
+    Map<AssetEntry, AssetEntry> bundled = new IdentityHashMap<AssetEntry, AssetEntry>();
+    for (String id : new ArrayList<String>(entries.keySet())) {
+      AssetEntry entry = entries.get(id);
+      AssetEntry bundledEntry = bundled.get(entry);
+      if (bundledEntry == null) {
+        AssetEntry old = previous.getEntry(id);
+        if (keepBundles && hasSameSources(entry, old, false)
+          && hasSameSources(entry, old, true)) {
+          bundledEntry = entry.withBundles(old.getScripts(), old.getLinks());
+        }
+        else {
+          bundledEntry = entry.withBundles(
+            bundleTags(entry.getSourceScripts(), false,
+              scriptPlan.getSharedTags()),
+            bundleTags(entry.getSourceLinks(), true, linkPlan.getSharedTags()));
+        }
+        bundled.put(entry, bundledEntry);
+      }
+      builder.putEntry(id, bundledEntry);
+    }
+    AssetEntry global = builder.getGlobal();
+    if (global != null) {
+      AssetEntry old = previous.getGlobal();
+      Map<String, TagTemplate> none = Collections
+        .<String, TagTemplate> emptyMap();
+      if (previousScripts.getThreshold() >= 0
+        && previousLinks.getThreshold() >= 0
+        && hasSameSources(global, old, false)
+        && hasSameSources(global, old, true)) {
+        builder.setGlobal(global.withBundles(old.getScripts(), old.getLinks()));
+      }
+      else {
+        builder.setGlobal(global.withBundles(
+          bundleTags(global.getSourceScripts(), false, none),
+          bundleTags(global.getSourceLinks(), true, none)));
+      }
+    }
+  }
+
+  /**
+   * Adds a run of bundleable tags, as a bundle if there is more than one.
+   */
+  private void addRun(List<TagTemplate> bundled, List<TagTemplate> run,
+    boolean isStyleSheet) {
+
+    // a run of one isn't worth bundling
+    if (run.size() > 1) {
+      try {
+        bundled.add(makeBundle(run, isStyleSheet));
+      }
+      catch (IOException e) {
+        LOG.error("Error bundling, using the original assets", e);
+        bundled.addAll(run);
+      }
+    }
+    else {
+      bundled.addAll(run);
+    }
+  }
+
+  /**
+   * <p>Joins runs of bundleable scripts or stylesheets into a single bundle
+   * each, keeping their order. Tags that can't be joined, such as remote
+   * assets or tags with other attributes, stay as they are and split the runs
+   * around them, and stylesheets from another directory start a new run.
+   * Shared assets are replaced by their shared bundle, whose members are
+   * always listed together and in order, and also split the runs around
+   * them.</p>
+   * 
+   * <p>A bundle is the cached files of its members joined in order, already
+   * minified if minifying. It is named by the hash of the fingerprinted names
+   * of its members, so a change to any member makes a new bundle, and is put
+   * in the directory of its first member. Stylesheets are only bundled with
+   * others from the same directory, so their relative urls resolve the same
+   * from the bundle.</p>
+   * 
+   * @param tags The compiled tags.
+   * @param isStyleSheet Are the tags stylesheets or scripts.
+   * @param shared The shared bundle tag by the path of each shared asset.
+   * 
+   * @return The tags with bundles in place of their members.
+   */
+  private TagTemplate[] bundleTags(TagTemplate[] tags, boolean isStyleSheet,
+    Map<String, TagTemplate> shared) {
+
+    if (tags.length == 0) {
+      return tags;
+    }
+
+    List<TagTemplate> bundled = new ArrayList<TagTemplate>();
+    List<TagTemplate> run = new ArrayList<TagTemplate>();
+    Set<TagTemplate> sharedUsed = new HashSet<TagTemplate>();
+    String runDir = null;
+    for (int i = 0; i <= tags.length; i++) {
+      TagTemplate tag = (i < tags.length) ? tags[i] : null;
+      boolean bundleable = tag != null && isBundleable(tag, isStyleSheet);
+      String path = bundleable ? getAssetPath(tag, isStyleSheet) : null;
+      TagTemplate sharedTag = bundleable ? shared.get(path) : null;
+      String dir = bundleable ? getAssetDir(path) : null;
+      if (bundleable && sharedTag == null
+        && (run.isEmpty() || !isStyleSheet || dir.equals(runDir))) {
+        run.add(tag);
+        runDir = dir;
+        continue;
+      }
+
+      // the run ended
+      addRun(bundled, run, isStyleSheet);
+      run.clear();
+      if (sharedTag != null) {
+        if (sharedUsed.add(sharedTag)) {
+          bundled.add(sharedTag);
+        }
+      }
+      else if (bundleable) {
+        run.add(tag);
+        runDir = dir;
+      }
+      else if (tag != null) {
+        bundled.add(tag);
+      }
+    }
+    return bundled.toArray(TagTemplate.EMPTY);
+  }
+
+  /**
+   * Writes the bundle of the tags to the cache, if it isn't already cached,
+   * and compiles the tag for it.
+   */
+  private TagTemplate makeBundle(List<TagTemplate> members,
+    boolean isStyleSheet)
+    throws IOException {
+
+    StringBuilder names = new StringBuilder();
+    for (TagTemplate member : members) {
+      names.append(getAssetPath(member, isStyleSheet)).append('\n');
+    }
+    String firstPath = getAssetPath(members.get(0), isStyleSheet);
+    String bundlePath = getAssetDir(firstPath) + "/bundle-"
+      + FingerprintCache.hash(names.toString())
+      + (isStyleSheet ? ".css" : ".js");
+
+    // only one thread, or server sharing the cache directory, makes the
+    // bundle, scripts are separated so statements without semicolons don't
+    // run together
+    File bundleFile = new File(bundlePath);
+    if (!bundleFile.exists()) {
+      CacheFiles.Lock lock = cacheFiles.lock(bundleFile);
+      try {
+        if (!bundleFile.exists()) {
+          ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+          byte[] separator = (isStyleSheet ? "\n" : ";\n").getBytes("UTF-8");
+          for (TagTemplate member : members) {
+            bundle.write(FileUtils.readFileToByteArray(new File(getAssetPath(
+              member, isStyleSheet))));
+            bundle.write(separator);
+          }
+          cacheFiles.write(bundleFile, bundle.toByteArray());
+          gzipCacheFile(bundleFile);
+        }
+      }
+      finally {
+        lock.release();
+      }
+    }
+
+    Map<String, String> fieldMap = new LinkedHashMap<String, String>();
+    if (isStyleSheet) {
+      fieldMap.put("rel", "stylesheet");
+      fieldMap.put("type", "text/css");
+      fieldMap.put("href", bundlePath);
+      return TagTemplate.compileLink(AssetTag.fromAttributes(fieldMap),
+        tagResolver);
+    }
+    fieldMap.put("type", "text/javascript");
+    fieldMap.put("src", bundlePath);
+    return TagTemplate.compileScript(AssetTag.fromAttributes(fieldMap),
+      tagResolver);
+  }
+
+  /**
+   * <p>Validates and publishes a new generation of the configuration, then
+   * replaces the cached renders of the entries that changed, or of the touched
+   * ids, whose assets changed without their entries changing.</p>
+   * 
+   * <p>The generation is only published if every config in it loaded. If any
+   * config failed the generation is thrown away and the current one stays
+   * live, except on the first load where there is nothing to keep and the
+   * configs that did load are published.</p>
+   * 
+   * @param builder The loaded generation.
+   * @param touchedIds Other ids whose renders need to be replaced.
+   */
+  private void publishAssets(AssetSnapshot.Builder builder,
+    Collection<String> touchedIds) {
+
+    AssetSnapshot previous = builder.getBase();
+    if (!builder.isValid()) {
+      if (previous != AssetSnapshot.EMPTY) {
+        LOG.error("Errors loading " + builder.getErrors()
+          + ", keeping the current configuration");
+        return;
+      }
+      LOG.error("Errors loading " + builder.getErrors() + ", skipping them");
+    }
+    bundleEntries(builder);
+    AssetSnapshot next = builder.build();
+
+    // only entries that changed since the previous generation have their
+    // renders replaced, unchanged entries keep their renders, removed entries
+    // have all of their renders removed
+    AssetEntry global = next.getGlobal();
+    boolean globalChanged = (global != null) ? global.diff(previous
+      .getGlobal()) != 0 : previous.getGlobal() != null;
+    Set<String> allIds = new LinkedHashSet<String>(next.getEntries().keySet());
+    allIds.addAll(previous.getEntries().keySet());
+    Map<String, Integer> changedTypes = new LinkedHashMap<String, Integer>();
+    for (String id : allIds) {
+      AssetEntry entry = next.getEntry(id);
+      int changed = (entry != null) ? entry.diff(previous.getEntry(id))
+        : FooGlueConstants.TYPE_ALL;
+      if (changed != 0) {
+        changedTypes.put(id, changed);
+      }
+    }
+
+    // changed asset files change the scripts and links of the ids using them
+    for (String touchedId : touchedIds) {
+      Integer changed = changedTypes.get(touchedId);
+      changedTypes.put(touchedId, ((changed != null) ? changed : 0)
+        | FooGlueConstants.TYPE_SCRIPT | FooGlueConstants.TYPE_LINK);
+    }
+
+    // a single volatile write makes the whole generation visible at once, a
+    // generation built from a snapshot that is no longer current is stale.
+    // renders started from the previous generation, or while its renders are
+    // replaced, aren't cached once the publish begins
+    RenderCache current;
+    synchronized (snapshotLock) {
+      if (snapshot != previous) {
+        LOG.warn("Configuration changed while reloading, discarding reload");
+        return;
+      }
+      current = renderCache;
+      current.beginPublish();
+      snapshot = next;
+    }
+    try {
+      if (!globalChanged && changedTypes.isEmpty()) {
+        return;
+      }
+      if (cacheAssets) {
+        replaceRenders(next, globalChanged, changedTypes, current);
+      }
+    }
+    finally {
+      current.endPublish();
+    }
+  }
+
+  /**
+   * Replaces the cached renders of a newly published generation.
+   * 
+   * @param next The published generation.
+   * @param globalChanged True if the global entry changed.
+   * @param changedTypes The asset types that changed by id.
+   * @param cache The render cache current when the generation was published.
+   */
+  private void replaceRenders(AssetSnapshot next, boolean globalChanged,
+    Map<String, Integer> changedTypes, RenderCache cache) {
+
+    // if global we have to replace all caches because we don't know what the
+    // global values touch. the new cache is pre-rendered off to the side
+    // and swapped in so requests never see a cold or half cleared cache
+    if (globalChanged) {
+      RenderCache rebuilt = new RenderCache(renderCacheMaxSize);
+      warmRenders(next, next.getEntries().keySet(), rebuilt);
+      renderCache = rebuilt;
+    }
+    else {
+
+      // if not a global config we can just replace the renders that contain
+      // the changed ids, for every locale, using the id index. only renders
+      // of the changed asset types are replaced, fragments are replaced if
+      // they include any changed type. warmed renders are replaced in place,
+      // others are removed
+      Set<String> warmIds = new LinkedHashSet<String>(changedTypes.keySet());
+      warmIds.retainAll(next.getEntries().keySet());
+      Set<RenderKey> warmed = warmRenders(next, warmIds, cache);
+      for (Entry<String, Integer> changedEntry : changedTypes.entrySet()) {
+        int changed = changedEntry.getValue();
+        for (RenderKey cacheKey : cache.getKeys(changedEntry.getKey())) {
+          if ((cacheKey.getType() & changed) != 0
+            && !warmed.contains(cacheKey)) {
+            cache.remove(cacheKey);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses a fooglue configuration file with the shared mapper.
+   */
+  private JsonNode readAssetConfig(File configFile)
+    throws IOException {
+    return JSONUtils.parseJson(configFile);
+  }
+
+  /**
+   * Minifies and caches the scripts and stylesheets of the entries in a parsed
+   * config ahead of loading it, allowing many configs to be prepared in
+   * parallel. Only reads from the builder. Sections that will be reused as is
+   * are skipped.
+   * 
+   * @param root The parsed config.
+   * @param builder The generation being loaded.
+   */
+  private void prepareAssets(JsonNode root, AssetSnapshot.Builder builder) {
+
+    if (!cacheAssets) {
+      return;
+    }
+
+    List<JsonNode> assets = new ArrayList<JsonNode>();
+    if (root instanceof ArrayNode) {
+      for (JsonNode asset : root) {
+        assets.add(asset);
+      }
+    }
+    else {
+      assets.add(root);
+    }
+
+    for (JsonNode asset : assets) {
+      if (!asset.has("id")) {
+        continue;
+      }
+      List<String> ids = JSONUtils.getStringValues(asset.get("id"));
+      if (ids.isEmpty()) {
+        continue;
+      }
+      JsonNode previousDef = getReusableDefinition(asset, ids.get(0), builder
+        .getBase().getEntry(ids.get(0)), builder);
+      prepareSection(asset, previousDef, "scripts", false, builder);
+      prepareSection(asset, previousDef, "links", true, builder);
+    }
+  }
+
+  /**
+   * Minifies and caches the scripts or stylesheets of a single entry section.
+   */
+  private void prepareSection(JsonNode asset, JsonNode previousDef,
+    String section, boolean isStyleSheet, AssetSnapshot.Builder builder) {
+
+    if (!asset.has(section)
+      || (previousDef != null && sameSection(previousDef, asset, section))) {
+      return;
+    }
+    for (JsonNode tag : asset.get(section)) {
+      Map<String, String> fieldMap = isStyleSheet ? getLinkAttributes(tag,
+        builder) : getScriptAttributes(tag, builder);
+      if (StringUtils.isNotBlank(fieldMap.get(isStyleSheet ? "href" : "src"))) {
+        try {
+          cacheAsset(fieldMap, isStyleSheet);
+        }
+        catch (Exception e) {
+          // do nothing, errors are logged when the config is loaded
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads a single fooglue configuration file, compiling its entries into the
+   * generation being loaded. Entries are not visible until the generation is
+   * published. Configs that fail to load are recorded as errors.
+   * 
+   * @param configFile The configuration file to load.
+   * @param parsed The config already parsed in parallel, or null to parse it.
+   * @param builder The generation being loaded.
+   */
+  private void loadAssetConfig(File configFile, Future<JsonNode> parsed,
+    AssetSnapshot.Builder builder) {
+
+    // ignore if the config file doesn't exist
+    String configPath = configFile.getPath();
+    if (!configFile.exists()) {
+      LOG.warn("Config file doesn't exist: " + configPath + ", ignoring");
+      return;
+    }
+
+    // set the last modified for the file before parsing in case of errors,
+    // configs parsed in parallel have it set before they are parsed
+    if (parsed == null) {
+      long lastModified = configFile.lastModified();
+      fileModTimes.put(configPath, lastModified);
+    }
+
+    // add the to the config file set
+    builder.addConfig(configPath);
+
+    try {
+
+      // processing global file or content file
+      String filename = configFile.getName();
+      boolean isGlobal = StringUtils.equals(filename, globalConfig);
+      JsonNode root = null;
+      try {
+        root = (parsed != null) ? parsed.get() : readAssetConfig(configFile);
+      }
+      catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        throw (cause instanceof Exception) ? (Exception)cause : e;
+      }
+
+      // global then load aliases, if the aliases changed every entry has to
+      // be compiled again
+      if (isGlobal) {
+        JsonNode aliases = root.get("aliases");
+        builder.setAliases(aliases, getAttributes(aliases));
+      }
+
+      // config files can hold multiple entries
+      if (root instanceof ArrayNode) {
+        for (JsonNode asset : root) {
+          loadAsset(asset, configPath, false, builder);
+        }
+      }
+      else {
+        loadAsset(root, configPath, isGlobal, builder);
+      }
+    }
+    catch (Exception e) {
+      LOG.error("Error parsing config: " + configPath, e);
+      builder.addError(configPath);
+    }
+  }
+
+  /**
+   * <p>Loads configuration files into the generation being loaded.</p>
+   * 
+   * <p>The global config is loaded first, by itself, as every other config
+   * uses its aliases. The other configs are then parsed and their assets
+   * minified and cached in parallel using up to loadThreads threads, each
+   * asset only once. Once every config is prepared they are compiled into the
+   * generation one at a time in the order given, so the result is the same as
+   * loading them one after another.</p>
+   * 
+   * @param configFiles The configuration files to load.
+   * @param builder The generation being loaded.
+   */
+  private void loadAssetConfigs(List<File> configFiles,
+    final AssetSnapshot.Builder builder) {
+
+    // assets are cached once per load, picking up any changes since the last
+    cachedAssetPaths.clear();
+    List<File> otherFiles = new ArrayList<File>();
+    for (File configFile : configFiles) {
+      if (StringUtils.equals(configFile.getName(), globalConfig)) {
+        loadAssetConfig(configFile, null, builder);
+      }
+      else {
+        otherFiles.add(configFile);
+      }
+    }
+
+    int threads = Math.min(loadThreads, otherFiles.size());
+    List<Future<JsonNode>> parsed = new ArrayList<Future<JsonNode>>();
+    ExecutorService pool = null;
+    try {
+
+      // parse and prepare the configs in parallel, waiting for all of them
+      // before compiling as the builder can't be read while it is written
+      if (threads > 1) {
+        pool = Executors.newFixedThreadPool(threads);
+        for (final File configFile : otherFiles) {
+          if (configFile.exists()) {
+            fileModTimes.put(configFile.getPath(), configFile.lastModified());
+          }
+          parsed.add(pool.submit(new Callable<JsonNode>() {
+            public JsonNode call()
+              throws Exception {
+              JsonNode root = readAssetConfig(configFile);
+              prepareAssets(root, builder);
+              return root;
+            }
+          }));
+        }
+        for (Future<JsonNode> config : parsed) {
+          try {
+            config.get();
+          }
+          catch (Exception e) {
+            // do nothing, errors are logged when the config is loaded
+          }
+        }
+      }
+
+      // compile in order, configs not parsed in parallel are parsed here
+      for (int i = 0; i < otherFiles.size(); i++) {
+        loadAssetConfig(otherFiles.get(i), parsed.isEmpty() ? null : parsed
+          .get(i), builder);
+      }
+      writeCacheManifest();
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+      cachedAssetPaths.clear();
+    }
+  }
+
+  /**
+   * Load or reload all asset configuration files into a new generation of the
+   * configuration. The generation is published once every file has loaded.
+   * 
+   * @param touchedIds The ids using changed assets, compiled again instead of
+   * being reused.
+   */
+  private void loadAllAssetConfigFiles(Collection<String> touchedIds) {
+
+    // loop through resources to find the asset configs if any exist
+    List<File> configFiles = new ArrayList<File>();
+    if (configResources != null) {
+      for (Resource configResource : configResources) {
+        try {
+          File assetConfig = configResource.getFile();
+          LOG.info("Loading asset config: " + assetConfig.getPath());
+          configFiles.add(assetConfig);
+        }
+        catch (Exception e) {
+          // do nothing, continue with other files
+        }
+      }
+    }
+
+    // a full reload starts empty, dropping anything no longer configured,
+    // entries using changed assets are compiled again, not reused
+    AssetSnapshot.Builder builder = snapshot.edit(true);
+    builder.removeDefinitions(touchedIds);
+    loadAssetConfigs(configFiles, builder);
+    publishAssets(builder, touchedIds);
+  }
+
+  /**
+   * Returns the cached render for the key or null if it isn't cached or render
+   * caching is off.
+   */
+  private Object getCachedRender(RenderCache cache, RenderKey cacheKey) {
+    return cacheAssets ? cache.get(cacheKey) : null;
+  }
+
+  /**
+   * Caches the render for the key if render caching is on and no snapshot was
+   * published since the generation was read.
+   */
+  private void cacheRender(RenderCache cache, long generation,
+    RenderKey cacheKey, Object rendered) {
+    if (cacheAssets) {
+      cache.put(cacheKey, rendered, generation);
+    }
+  }
+
+  public FooGlueServiceImpl() {
+
+  }
+
+  public FooGlueServiceImpl(String rootDir, Resource[] configResources) {
+    this.rootDir = rootDir;
+    setConfigResources(configResources);
+  }
+
+  /**
+   * Initialize the fooglue service. Loads all of the configuration resources.
+   * Starts up the changes monitoring.
+   */
+  public synchronized void initialize() {
+
+    // size the render and property caches, only used when caching assets
+    renderCache = new RenderCache(renderCacheMaxSize);
+    dynamicCache = new FooGlueCache<DynamicKey, String>(dynamicCacheMaxSize);
+    propertyCache = new FooGlueCache<PropertyKey, Object>(propertyCacheMaxSize);
+    messageReloadCount = getMessageReloadCount();
+
+    // setup the cache directory
+    if (StringUtils.isBlank(cacheDir)) {
 
       // setup the cache under a temp directory if a directory isn't specified
       File tempCache = new File(FileUtils.getTempDirectory(), "_fg_cache_");
@@ -790,56 +2551,240 @@ public class FooGlueServiceImpl
       }
     }
 
-    // load all asset config files
-    if (configResources != null && configResources.length > 0) {
-      loadAllAssetConfigFiles();
+    // reuse the assets cached before the last shutdown
+    if (cacheAssets) {
+      readCacheManifest();
+    }
+
+    // minify in the background when changes are reloaded, the reloader
+    // switches tags over to minified files as they are finished
+    minifier = null;
+    compressors = null;
+    if (cacheAssets && minifyAssets && reloadInterval > 0) {
+      minifier = Executors.newFixedThreadPool(Math.max(1, minifyThreads),
+        daemonThreads("fooglue-minifier"));
+
+      // compressions that ran over the timeout may keep their thread until
+      // they finish, so the compressors are bounded, with a bounded queue
+      int cpus = Runtime.getRuntime().availableProcessors();
+      compressors = new ThreadPoolExecutor(cpus, cpus, 0L,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(cpus
+          + minifyThreads), daemonThreads("fooglue-compressor"));
+    }
+
+    // load all asset config files
+    if (configResources != null && configResources.length > 0) {
+      loadAllAssetConfigFiles(Collections.<String> emptySet());
+    }
+
+    // activate the service
+    active.set(true);
+
+    // start the reloading thread if we have a reload interval
+    if (reloadInterval > 0) {
+      reloader = null;
+      if (watchForChanges) {
+        try {
+          reloader = new WatchingReloader(FileSystems.getDefault()
+            .newWatchService());
+        }
+        catch (Exception e) {
+          LOG.warn("Can't watch for changes, polling for changes instead");
+        }
+      }
+      if (reloader == null) {
+        reloader = new PollingReloader();
+      }
+      reloader.setDaemon(true);
+      reloader.start();
+    }
+  }
+
+  /**
+   * Shutdown the fooglue service. Clears all assets and configs. Clears all
+   * caches. Delete the cache directory from the file system.
+   */
+  public synchronized void shutdown() {
+
+    // set active to false to stop the reloader
+    active.set(false);
+
+    // clear the assets and configs
+    fileModTimes.clear();
+    synchronized (snapshotLock) {
+      snapshot = AssetSnapshot.EMPTY;
+    }
+
+    // stop minifying, compressions past their timeout are abandoned
+    if (minifier != null) {
+      minifier.shutdownNow();
+      compressors.shutdownNow();
+    }
+    pendingMinifies.clear();
+    abandonedMinifies.clear();
+    minifiedAssets.clear();
+    bundleableFiles.clear();
+
+    // clear the caches
+    renderCache.clear();
+    dynamicCache.clear();
+    propertyCache.clear();
+
+    // keep the cache directory and its manifest for the next start, or
+    // quietly remove the cache directory, a shared cache directory is in use
+    // by other servers and is always kept
+    if (keepCacheOnShutdown || sharedCacheDir) {
+      writeCacheManifest();
+    }
+    else {
+      FileUtils.deleteQuietly(new File(cacheDir));
+    }
+    fingerprints.clear();
+  }
+
+  /**
+   * Reinitializes the service by shutting down and then restarting.
+   */
+  public synchronized void reinitialize() {
+    shutdown();
+    initialize();
+  }
+
+  /**
+   * Renders the script tags for the id from the snapshot, without caching.
+   */
+  private List<String> renderScriptTags(AssetSnapshot current, String id,
+    Locale locale, boolean includeGlobal) {
+
+    // get the global and id assets
+    AssetEntry globalAssets = current.getGlobal();
+    AssetEntry idAssets = current.getEntry(id);
+    if (requireIdForAssets && idAssets == null) {
+      return Collections.emptyList();
+    }
+
+    // add the global scripts
+    List<String> scriptTags = new ArrayList<String>();
+    if (includeGlobal && globalAssets != null) {
+      for (TagTemplate scriptTemplate : globalAssets.getScripts()) {
+        String scriptTag = scriptTemplate.render(locale, tagResolver);
+        scriptTags.add(scriptTag);
+      }
+    }
+
+    // add the scripts for the path
+    if (idAssets != null) {
+      for (TagTemplate scriptTemplate : idAssets.getScripts()) {
+        String scriptTag = scriptTemplate.render(locale, tagResolver);
+        scriptTags.add(scriptTag);
+      }
+    }
+
+    // don't allow the list to be modified by caller
+    return Collections.unmodifiableList(scriptTags);
+  }
+
+  /**
+   * Renders the meta tags for the id from the snapshot, without caching.
+   */
+  private List<String> renderMetaTags(AssetSnapshot current, String id,
+    Locale locale, boolean includeGlobal) {
+
+    // get the global and path assets
+    AssetEntry globalAssets = current.getGlobal();
+    AssetEntry idAssets = current.getEntry(id);
+    if (requireIdForAssets && idAssets == null) {
+      return Collections.emptyList();
     }
 
-    // activate the service
-    active.set(true);
+    // add the global meta tags
+    List<String> metaTags = new ArrayList<String>();
+    if (includeGlobal && globalAssets != null) {
+      for (TagTemplate metaTemplate : globalAssets.getMetas()) {
+        String metaTag = metaTemplate.render(locale, tagResolver);
+        metaTags.add(metaTag);
+      }
+    }
 
-    // start the reloading thread if we have a reload interval
-    if (reloadInterval > 0) {
-      reloader = new PollingReloader();
-      reloader.setDaemon(true);
-      reloader.start();
+    // add the met tags for the path
+    if (idAssets != null) {
+      for (TagTemplate metaTemplate : idAssets.getMetas()) {
+        String metaTag = metaTemplate.render(locale, tagResolver);
+        metaTags.add(metaTag);
+      }
     }
+
+    // don't allow the list to be modified by caller
+    return Collections.unmodifiableList(metaTags);
   }
 
   /**
-   * Shutdown the fooglue service. Clears all assets and configs. Clears all
-   * caches. Delete the cache directory from the file system.
+   * Renders the link tags for the id from the snapshot, without caching.
    */
-  public synchronized void shutdown() {
+  private List<String> renderLinkTags(AssetSnapshot current, String id,
+    Locale locale, boolean includeGlobal) {
 
-    // set active to false to stop the reloader
-    active.set(false);
+    // get the global and path assets
+    AssetEntry globalAssets = current.getGlobal();
+    AssetEntry idAssets = current.getEntry(id);
+    if (requireIdForAssets && idAssets == null) {
+      return Collections.emptyList();
+    }
 
-    // clear the assets and configs
-    fileModTimes.clear();
-    configSet.clear();
-    assetSet.clear();
-    assetsToConfigs.clear();
-    idToConfig.clear();
-    assets.clear();
+    // add the global links
+    List<String> linkTags = new ArrayList<String>();
+    if (includeGlobal && globalAssets != null) {
+      for (TagTemplate linkTemplate : globalAssets.getLinks()) {
+        String linkTag = linkTemplate.render(locale, tagResolver);
+        linkTags.add(linkTag);
+      }
+    }
 
-    // clear the caches
-    aliasesCache.clear();
-    scriptsCache.clear();
-    metaCache.clear();
-    linksCache.clear();
-    titleCache.clear();
+    // add the links for the path
+    if (idAssets != null) {
+      for (TagTemplate linkTemplate : idAssets.getLinks()) {
+        String linkTag = linkTemplate.render(locale, tagResolver);
+        linkTags.add(linkTag);
+      }
+    }
 
-    // quietly remove the cache directory
-    FileUtils.deleteQuietly(new File(cacheDir));
+    // don't allow the list to be modified by caller
+    return Collections.unmodifiableList(linkTags);
   }
 
   /**
-   * Reinitializes the service by shutting down and then restarting.
+   * Renders the title tag for the id from the snapshot, without caching.
+   * Returns an empty string if there is no title.
    */
-  public synchronized void reinitialize() {
-    shutdown();
-    initialize();
+  private String renderTitleTag(AssetSnapshot current, String id,
+    Locale locale, boolean includeGlobal) {
+
+    // get the global and id assets
+    AssetEntry globalAssets = current.getGlobal();
+    AssetEntry idAssets = current.getEntry(id);
+    if (requireIdForAssets && idAssets == null) {
+      return "";
+    }
+
+    // check global title if id title isn't present
+    String title = null;
+    if (idAssets != null) {
+      title = idAssets.getTitle();
+    }
+    if (includeGlobal && globalAssets != null && StringUtils.isBlank(title)) {
+      title = globalAssets.getTitle();
+    }
+
+    // convert to message if necessary
+    if (StringUtils.isNotBlank(title)) {
+      title = resolveProperty(title, locale);
+    }
+
+    // add title wrapper
+    if (StringUtils.isNotBlank(title)) {
+      return "<title>" + title + "</title>";
+    }
+    return "";
   }
 
   /**
@@ -855,381 +2800,636 @@ public class FooGlueServiceImpl
   public List<String> getScriptTagsForId(String id, Locale locale,
     boolean includeGlobal) {
 
-    // get the cache key from id and locale
-    String cacheKey = getCacheKey(id, locale);
+    // check the cache first, empty results are cached as well
+    RenderCache cache = renderCache;
+    long generation = cache.getGeneration();
+    RenderKey cacheKey = new RenderKey(FooGlueConstants.TYPE_SCRIPT, id, locale,
+      includeGlobal);
+    List<String> scriptTags = (List<String>)getCachedRender(cache, cacheKey);
+    if (scriptTags == null) {
+      scriptTags = renderScriptTags(snapshot, id, locale, includeGlobal);
+      cacheRender(cache, generation, cacheKey, scriptTags);
+    }
+    return scriptTags;
+  }
 
-    // check the cache first
-    if (scriptsCache.containsKey(cacheKey)) {
-      return scriptsCache.get(cacheKey);
+  /**
+   * Returns a list of the meta tags for the id. If includeGlobal is true then
+   * the global meta tags are also included.
+   * 
+   * @param id The unique id matching an id in a fooglue config file.
+   * @param locale The current locale, used to resolve properties.
+   * @param includeGlobal Include global meta tags.
+   * 
+   * @return The list of meta tags for the id and locale.
+   */
+  public List<String> getMetaTagsForId(String id, Locale locale,
+    boolean includeGlobal) {
+
+    // check the cache first, empty results are cached as well
+    RenderCache cache = renderCache;
+    long generation = cache.getGeneration();
+    RenderKey cacheKey = new RenderKey(FooGlueConstants.TYPE_META, id, locale,
+      includeGlobal);
+    List<String> metaTags = (List<String>)getCachedRender(cache, cacheKey);
+    if (metaTags == null) {
+      metaTags = renderMetaTags(snapshot, id, locale, includeGlobal);
+      cacheRender(cache, generation, cacheKey, metaTags);
     }
+    return metaTags;
+  }
 
-    // not in cache create a new list and populate with the global scripts
-    List<String> scriptTags = new ArrayList<String>();
+  /**
+   * Returns a list of the link tags for the id. If includeGlobal is true then
+   * the global link tags are also included.
+   * 
+   * @param id The unique id matching an id in a fooglue config file.
+   * @param locale The current locale, used to resolve properties.
+   * @param includeGlobal Include global link tags.
+   * 
+   * @return The list of link tags for the id and locale.
+   */
+  public List<String> getLinkTagsForId(String id, Locale locale,
+    boolean includeGlobal) {
 
-    // get the global and id assets
-    Map globalAssets = (Map)assets.get(FooGlueConstants.GLOBAL);
-    Map idAssets = (Map)assets.get(id);
-    if (requireIdForAssets && idAssets == null) {
-      return scriptTags;
+    // check the cache first, empty results are cached as well
+    RenderCache cache = renderCache;
+    long generation = cache.getGeneration();
+    RenderKey cacheKey = new RenderKey(FooGlueConstants.TYPE_LINK, id, locale,
+      includeGlobal);
+    List<String> linkTags = (List<String>)getCachedRender(cache, cacheKey);
+    if (linkTags == null) {
+      linkTags = renderLinkTags(snapshot, id, locale, includeGlobal);
+      cacheRender(cache, generation, cacheKey, linkTags);
     }
+    return linkTags;
+  }
 
-    // add the global scripts
-    if (includeGlobal && globalAssets != null) {
-      List<Map> globalScripts = (List<Map>)globalAssets
-        .get(FooGlueConstants.SCRIPTS);
-      if (globalScripts != null && globalScripts.size() > 0) {
-        for (Map<String, String> scriptAttrs : globalScripts) {
-          String scriptTag = createScriptTag(scriptAttrs, locale);
-          scriptTags.add(scriptTag);
+  /**
+   * Returns the title for the id. If includeGlobal is true and a title for the
+   * id is not found then the global title is returned.
+   * 
+   * @param id The unique id matching an id in a fooglue config file.
+   * @param locale The current locale, used to resolve properties.
+   * @param includeGlobal Include global title if local not found.
+   * 
+   * @return The title for the id and locale.
+   */
+  public String getTitleTagForId(String id, Locale locale, boolean includeGlobal) {
+
+    // check the cache first, a missing title is cached as an empty string
+    RenderCache cache = renderCache;
+    long generation = cache.getGeneration();
+    RenderKey cacheKey = new RenderKey(FooGlueConstants.TYPE_TITLE, id, locale,
+      includeGlobal);
+    String title = (String)getCachedRender(cache, cacheKey);
+    if (title == null) {
+      title = renderTitleTag(snapshot, id, locale, includeGlobal);
+      cacheRender(cache, generation, cacheKey, title);
+    }
+    return (title.length() > 0) ? title : null;
+  }
+
+  /**
+   * <p>Returns the pre-rendered fragment of title, meta, link, and script tags
+   * for the ids. Tags are combined across ids in the same way as the individual
+   * getXXXForId methods, the first title found is used and the meta, link, and
+   * script tags for each id are appended in id order.</p>
+   * 
+   * <p>The fragment is cached as a whole, which allows a single lookup and a
+   * single write for an entire head block.</p>
+   * 
+   * @param ids The unique ids matching ids in fooglue config files.
+   * @param locale The current locale, used to resolve properties.
+   * @param includeGlobal Include global assets.
+   * @param types The FooGlueConstants type flags of the assets to include.
+   * 
+   * @return The pre-rendered fragment for the ids and locale.
+   */
+  public FooGlueFragment getFragmentForIds(Collection<String> ids,
+    Locale locale, boolean includeGlobal, int types) {
+
+    // check the cache first
+    RenderCache cache = renderCache;
+    long generation = cache.getGeneration();
+    RenderKey cacheKey = new RenderKey(types, ids, locale, includeGlobal);
+    FooGlueFragment fragment = (FooGlueFragment)getCachedRender(cache,
+      cacheKey);
+    if (fragment != null) {
+      return fragment;
+    }
+
+    // use only the first title found for an id, can't have multiple
+    String title = null;
+    if ((types & FooGlueConstants.TYPE_TITLE) != 0) {
+      for (String id : ids) {
+        title = getTitleTagForId(id, locale, includeGlobal);
+        if (StringUtils.isNotBlank(title)) {
+          break;
         }
       }
     }
 
-    // add the scripts for the path
-    if (idAssets != null) {
-      List<Map> idScripts = (List<Map>)idAssets.get(FooGlueConstants.SCRIPTS);
-      if (idScripts != null && idScripts.size() > 0) {
-        for (Map<String, String> scriptAttrs : idScripts) {
-          String scriptTag = createScriptTag(scriptAttrs, locale);
-          scriptTags.add(scriptTag);
-        }
+    // combine the tags of each type across all of the ids, in order
+    List<String> metaTags = new ArrayList<String>();
+    List<String> linkTags = new ArrayList<String>();
+    List<String> scriptTags = new ArrayList<String>();
+    for (String id : ids) {
+      if ((types & FooGlueConstants.TYPE_META) != 0) {
+        metaTags.addAll(getMetaTagsForId(id, locale, includeGlobal));
+      }
+      if ((types & FooGlueConstants.TYPE_LINK) != 0) {
+        linkTags.addAll(getLinkTagsForId(id, locale, includeGlobal));
+      }
+      if ((types & FooGlueConstants.TYPE_SCRIPT) != 0) {
+        scriptTags.addAll(getScriptTagsForId(id, locale, includeGlobal));
       }
     }
 
-    // don't allow the list to be modified by caller
-    Collections.unmodifiableList(scriptTags);
+    // blank titles are treated the same as no title
+    if (StringUtils.isBlank(title)) {
+      title = null;
+    }
+    fragment = new FooGlueFragment(title, metaTags, linkTags, scriptTags);
 
-    // cache the list for next time and return it
-    if (cacheAssets && scriptTags.size() > 0) {
-      scriptsCache.put(cacheKey, scriptTags);
+    // cache the fragment for next time and return it, encode once up front so
+    // byte output never encodes the same content again
+    if (cacheAssets && preEncodeFragments) {
+      fragment.encode();
     }
+    cacheRender(cache, generation, cacheKey, fragment);
 
-    return scriptTags;
+    return fragment;
   }
 
   /**
-   * Returns a list of the meta tags for the id. If includeGlobal is true then
-   * the global meta tags are also included.
-   * 
-   * @param id The unique id matching an id in a fooglue config file.
-   * @param locale The current locale, used to resolve properties.
-   * @param includeGlobal Include global meta tags.
-   * 
-   * @return The list of meta tags for the id and locale.
+   * Converts a dynamic asset, either a Map of attributes or a string shorthand,
+   * into an immutable AssetTag. Script shorthands are the src and link
+   * shorthands are the href of a stylesheet, meta tags have no shorthand.
+   * Returns null for anything else.
    */
-  public List<String> getMetaTagsForId(String id, Locale locale,
-    boolean includeGlobal) {
+  private AssetTag toDynamicTag(int type, Object assetObj) {
+
+    // either is a map of attributes or is just a string, create the single
+    // tag from either
+    if (assetObj instanceof Map) {
+      Map<String, String> assetAttrs = (Map<String, String>)assetObj;
+      if (assetAttrs.size() > 0) {
+        return AssetTag.fromAttributes(assetAttrs);
+      }
+    }
+    else if (assetObj instanceof String) {
+
+      // set default values for the tag if shorthand string
+      Map<String, String> assetAttrs = new LinkedHashMap<String, String>();
+      if (type == FooGlueConstants.TYPE_SCRIPT) {
+        assetAttrs.put("type", "text/javascript");
+        assetAttrs.put("src", (String)assetObj);
+        return AssetTag.fromAttributes(assetAttrs);
+      }
+      else if (type == FooGlueConstants.TYPE_LINK) {
+        assetAttrs.put("rel", "stylesheet");
+        assetAttrs.put("type", "text/css");
+        assetAttrs.put("href", (String)assetObj);
+        return AssetTag.fromAttributes(assetAttrs);
+      }
+    }
+    return null;
+  }
 
-    // get the cache key from id and locale
-    String cacheKey = getCacheKey(id, locale);
+  /**
+   * Compiles a dynamic tag of the given type.
+   */
+  private TagTemplate compileDynamicTag(int type, AssetTag tag) {
+    if (type == FooGlueConstants.TYPE_SCRIPT) {
+      return TagTemplate.compileScript(tag, tagResolver);
+    }
+    else if (type == FooGlueConstants.TYPE_LINK) {
+      return TagTemplate.compileLink(tag, tagResolver);
+    }
+    return TagTemplate.compileMeta(tag, tagResolver);
+  }
 
-    // check the cache first
-    if (metaCache.containsKey(cacheKey)) {
-      return metaCache.get(cacheKey);
+  /**
+   * Renders a single dynamic asset, a registered FooGlueDynamicAsset, Map of
+   * attributes, or string shorthand, for the locale. Rendered tags are cached
+   * by their content and locale when caching assets. Returns null if the asset
+   * isn't valid.
+   */
+  private String renderDynamicTag(int type, Object assetObj, Locale locale) {
+
+    // registered assets are already compiled
+    FooGlueDynamicAsset handle = null;
+    AssetTag tag = null;
+    if (assetObj instanceof FooGlueDynamicAsset) {
+      handle = (FooGlueDynamicAsset)assetObj;
+      if (handle.getType() != type) {
+        return null;
+      }
+      tag = handle.getTag();
+    }
+    else {
+      tag = toDynamicTag(type, assetObj);
+      if (tag == null) {
+        return null;
+      }
     }
 
-    // not in cache create a new list and populate with the global scripts
-    List<String> metaTags = new ArrayList<String>();
+    // check the cache first, embedded sources are read fresh every time
+    DynamicKey cacheKey = null;
+    if (cacheAssets && tag.get("embed") == null) {
+      cacheKey = new DynamicKey(type, tag, locale);
+      String cached = dynamicCache.get(cacheKey);
+      if (cached != null) {
+        return cached;
+      }
+    }
 
-    // get the global and path assets
-    Map globalAssets = (Map)assets.get(FooGlueConstants.GLOBAL);
-    Map idAssets = (Map)assets.get(id);
-    if (requireIdForAssets && idAssets == null) {
-      return metaTags;
+    // render and cache for next time
+    TagTemplate template = (handle != null) ? handle.getTemplate()
+      : compileDynamicTag(type, tag);
+    String rendered = template.render(locale, tagResolver);
+    if (cacheKey != null) {
+      dynamicCache.put(cacheKey, rendered);
     }
+    return rendered;
+  }
 
-    // add the global meta tags
-    if (includeGlobal && globalAssets != null) {
-      List<Map> globalMetas = (List<Map>)globalAssets
-        .get(FooGlueConstants.METAS);
-      if (globalMetas != null && globalMetas.size() > 0) {
-        for (Map<String, String> metaAttrs : globalMetas) {
-          String metaTag = createMetaTag(metaAttrs, locale);
-          metaTags.add(metaTag);
-        }
+  /**
+   * Renders a list of dynamic assets of the given type into a list of tags.
+   */
+  private List<String> renderDynamicTags(int type, List assets, Locale locale) {
+
+    // if we have assets, loop through
+    if (assets == null || assets.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<String> tags = new ArrayList<String>(assets.size());
+    for (int i = 0; i < assets.size(); i++) {
+      String rendered = renderDynamicTag(type, assets.get(i), locale);
+      if (rendered != null) {
+        tags.add(rendered);
       }
     }
 
-    // add the met tags for the path
-    if (idAssets != null) {
-      List<Map> idMetas = (List<Map>)idAssets.get(FooGlueConstants.METAS);
-      if (idMetas != null && idMetas.size() > 0) {
-        for (Map<String, String> metaAttrs : idMetas) {
-          String metaTag = createMetaTag(metaAttrs, locale);
-          metaTags.add(metaTag);
+    // don't allow the list to be modified by caller
+    return Collections.unmodifiableList(tags);
+  }
+
+  /**
+   * Writes out a list of dynamic assets of the given type, each tag followed
+   * by a newline.
+   */
+  private void writeDynamicTags(int type, List assets, Locale locale,
+    Appendable out)
+    throws IOException {
+    if (assets != null) {
+      for (int i = 0; i < assets.size(); i++) {
+        String rendered = renderDynamicTag(type, assets.get(i), locale);
+        if (rendered != null) {
+          out.append(rendered).append('\n');
         }
       }
     }
+  }
 
-    // don't allow the list to be modified by caller
-    Collections.unmodifiableList(metaTags);
-
-    // cache the list for next time and return it
-    if (cacheAssets && metaTags.size() > 0) {
-      metaCache.put(cacheKey, metaTags);
+  /**
+   * Registers a dynamic asset so its tag is compiled once and rendered tags are
+   * cached. The returned handle can be put into the request in place of the
+   * attribute map or string.
+   */
+  private FooGlueDynamicAsset registerDynamicAsset(int type, Object assetObj) {
+    AssetTag tag = toDynamicTag(type, assetObj);
+    if (tag == null) {
+      return null;
     }
+    return new FooGlueDynamicAsset(type, tag, compileDynamicTag(type, tag));
+  }
 
-    return metaTags;
+  /**
+   * Registers a dynamic script, either a Map of attributes or the src string.
+   * 
+   * @param script The script value, used to create the script tag.
+   * 
+   * @return A reusable handle for the script or null if the script isn't valid.
+   */
+  public FooGlueDynamicAsset registerDynamicScript(Object script) {
+    return registerDynamicAsset(FooGlueConstants.TYPE_SCRIPT, script);
   }
 
   /**
-   * Returns a list of the link tags for the id. If includeGlobal is true then
-   * the global link tags are also included.
+   * Registers a dynamic meta tag.
    * 
-   * @param id The unique id matching an id in a fooglue config file.
+   * @param meta The meta attributes, used to create the meta tag.
+   * 
+   * @return A reusable handle for the meta tag or null if there are no
+   * attributes.
+   */
+  public FooGlueDynamicAsset registerDynamicMeta(Map<String, String> meta) {
+    return registerDynamicAsset(FooGlueConstants.TYPE_META, meta);
+  }
+
+  /**
+   * Registers a dynamic link, either a Map of attributes or the href of a
+   * stylesheet.
+   * 
+   * @param link The link value, used to create the link tag.
+   * 
+   * @return A reusable handle for the link or null if the link isn't valid.
+   */
+  public FooGlueDynamicAsset registerDynamicLink(Object link) {
+    return registerDynamicAsset(FooGlueConstants.TYPE_LINK, link);
+  }
+
+  /**
+   * Returns a list of dynamically created script tags for the locale. Scripts
+   * can be Maps of attributes, src strings, or registered FooGlueDynamicAsset
+   * handles. Rendered tags are cached by content and locale when caching
+   * assets.
+   * 
+   * @param scripts The script values, used to create the script tags.
+   * @param locale The current locale, used to resolve properties.
+   * 
+   * @return A list of dynamically created script tags.
+   */
+  public List<String> getDynamicScriptTags(List scripts, Locale locale) {
+    return renderDynamicTags(FooGlueConstants.TYPE_SCRIPT, scripts, locale);
+  }
+
+  /**
+   * Returns a list of dynamically created meta tags for the locale. Meta tags
+   * can be Maps of attributes or registered FooGlueDynamicAsset handles.
+   * Rendered tags are cached by content and locale when caching assets.
+   * 
+   * @param metas The script values, used to create the meta tags.
+   * @param locale The current locale, used to resolve properties.
+   * 
+   * @return A list of dynamically created meta tags.
+   */
+  public List<String> getDynamicMetaTags(List<Map<String, String>> metas,
+    Locale locale) {
+    return renderDynamicTags(FooGlueConstants.TYPE_META, metas, locale);
+  }
+
+  /**
+   * Returns a list of dynamically created link tags for the locale. Links can
+   * be Maps of attributes, stylesheet href strings, or registered
+   * FooGlueDynamicAsset handles. Rendered tags are cached by content and locale
+   * when caching assets.
+   * 
+   * @param links The script values, used to create the link tags.
+   * @param locale The current locale, used to resolve properties.
+   * 
+   * @return A list of dynamically created link tags.
+   */
+  public List<String> getDynamicLinkTags(List links, Locale locale) {
+    return renderDynamicTags(FooGlueConstants.TYPE_LINK, links, locale);
+  }
+
+  /**
+   * Returns a dynamically created title tags for the locale. Rendered titles
+   * are cached by title and locale when caching assets.
+   * 
+   * @param title The title value, used to create the title tag.
    * @param locale The current locale, used to resolve properties.
-   * @param includeGlobal Include global link tags.
    * 
-   * @return The list of link tags for the id and locale.
+   * @return A dynamically created title tag.
    */
-  public List<String> getLinkTagsForId(String id, Locale locale,
-    boolean includeGlobal) {
+  public String getDynamicTitleTag(String title, Locale locale) {
 
-    // get the cache key from id and locale
-    String cacheKey = getCacheKey(id, locale);
+    if (StringUtils.isBlank(title)) {
+      return title;
+    }
 
     // check the cache first
-    if (linksCache.containsKey(cacheKey)) {
-      return linksCache.get(cacheKey);
+    DynamicKey cacheKey = null;
+    if (cacheAssets) {
+      cacheKey = new DynamicKey(FooGlueConstants.TYPE_TITLE, title, locale);
+      String cached = dynamicCache.get(cacheKey);
+      if (cached != null) {
+        return cached;
+      }
     }
 
-    // not in cache create a new list and populate with the global scripts
-    List<String> linkTags = new ArrayList<String>();
+    // convert to message if necessary
+    String titleTag = "<title>" + resolveProperty(title, locale) + "</title>";
+    if (cacheKey != null) {
+      dynamicCache.put(cacheKey, titleTag);
+    }
+    return titleTag;
+  }
 
-    // get the global and path assets
-    Map globalAssets = (Map)assets.get(FooGlueConstants.GLOBAL);
-    Map idAssets = (Map)assets.get(id);
+  /**
+   * Writes out each tag in the list followed by a newline.
+   */
+  private void writeTags(List<String> tags, Appendable out)
+    throws IOException {
+    for (int i = 0; i < tags.size(); i++) {
+      out.append(tags.get(i)).append('\n');
+    }
+  }
+
+  /**
+   * Writes out the tags of a single type for the id. Cached renders are written
+   * as is, otherwise the tags are rendered straight from their templates into
+   * the output.
+   */
+  private void writeTagsForId(int type, String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException {
+
+    // get the global and id assets
+    AssetSnapshot current = snapshot;
+    AssetEntry globalAssets = current.getGlobal();
+    AssetEntry idAssets = current.getEntry(id);
     if (requireIdForAssets && idAssets == null) {
-      return linkTags;
+      return;
     }
 
-    // add the global links
+    // add the global tags then the tags for the id
     if (includeGlobal && globalAssets != null) {
-      List<Map> globalLinks = (List<Map>)globalAssets
-        .get(FooGlueConstants.LINKS);
-      if (globalLinks != null && globalLinks.size() > 0) {
-        for (Map<String, String> linkAttrs : globalLinks) {
-          String linkTag = createLinkTag(linkAttrs, locale);
-          linkTags.add(linkTag);
-        }
+      for (TagTemplate template : globalAssets.getTemplates(type)) {
+        template.render(out, locale, tagResolver);
+        out.append('\n');
       }
     }
-
-    // add the links for the path
     if (idAssets != null) {
-      List<Map> idLinks = (List<Map>)idAssets.get(FooGlueConstants.LINKS);
-      if (idLinks != null && idLinks.size() > 0) {
-        for (Map<String, String> linkAttrs : idLinks) {
-          String linkTag = createLinkTag(linkAttrs, locale);
-          linkTags.add(linkTag);
-        }
+      for (TagTemplate template : idAssets.getTemplates(type)) {
+        template.render(out, locale, tagResolver);
+        out.append('\n');
       }
     }
-
-    // don't allow the list to be modified by caller
-    Collections.unmodifiableList(linkTags);
-
-    // cache the list for next time and return it
-    if (cacheAssets && linkTags.size() > 0) {
-      linksCache.put(cacheKey, linkTags);
-    }
-
-    return linkTags;
   }
 
   /**
-   * Returns the title for the id. If includeGlobal is true and a title for the
-   * id is not found then the global title is returned.
+   * Writes out the script tags for the id, each followed by a newline. If
+   * includeGlobal is true then the global script tags are written first.
    * 
    * @param id The unique id matching an id in a fooglue config file.
    * @param locale The current locale, used to resolve properties.
-   * @param includeGlobal Include global title if local not found.
-   * 
-   * @return The title for the id and locale.
+   * @param includeGlobal Include global script tags.
+   * @param out The output to write the tags to.
    */
-  public String getTitleTagForId(String id, Locale locale, boolean includeGlobal) {
-
-    // get the cache key from id and locale
-    String cacheKey = getCacheKey(id, locale);
-
-    // check the cache first
-    if (titleCache.containsKey(cacheKey)) {
-      return titleCache.get(cacheKey);
+  public void writeScriptTagsForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException {
+    if (cacheAssets) {
+      writeTags(getScriptTagsForId(id, locale, includeGlobal), out);
     }
-
-    // get the global and id assets
-    Map globalAssets = (Map)assets.get(FooGlueConstants.GLOBAL);
-    Map idAssets = (Map)assets.get(id);
-    if (requireIdForAssets && idAssets == null) {
-      return null;
+    else {
+      writeTagsForId(FooGlueConstants.TYPE_SCRIPT, id, locale, includeGlobal,
+        out);
     }
+  }
 
-    // check global title if id title isn't present
-    String title = null;
-    if (idAssets != null) {
-      title = (String)idAssets.get(FooGlueConstants.TITLE);
+  /**
+   * Writes out the meta tags for the id, each followed by a newline. If
+   * includeGlobal is true then the global meta tags are written first.
+   * 
+   * @param id The unique id matching an id in a fooglue config file.
+   * @param locale The current locale, used to resolve properties.
+   * @param includeGlobal Include global meta tags.
+   * @param out The output to write the tags to.
+   */
+  public void writeMetaTagsForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException {
+    if (cacheAssets) {
+      writeTags(getMetaTagsForId(id, locale, includeGlobal), out);
     }
-    if (includeGlobal && globalAssets != null && StringUtils.isBlank(title)) {
-      title = (String)globalAssets.get(FooGlueConstants.TITLE);
+    else {
+      writeTagsForId(FooGlueConstants.TYPE_META, id, locale, includeGlobal,
+        out);
     }
+  }
 
-    // convert to message if necessary
-    if (StringUtils.isNotBlank(title)) {
-      title = resolveProperty(title, locale);
+  /**
+   * Writes out the link tags for the id, each followed by a newline. If
+   * includeGlobal is true then the global link tags are written first.
+   * 
+   * @param id The unique id matching an id in a fooglue config file.
+   * @param locale The current locale, used to resolve properties.
+   * @param includeGlobal Include global link tags.
+   * @param out The output to write the tags to.
+   */
+  public void writeLinkTagsForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException {
+    if (cacheAssets) {
+      writeTags(getLinkTagsForId(id, locale, includeGlobal), out);
     }
-
-    // add title wrapper and cache
-    if (StringUtils.isNotBlank(title)) {
-      title = "<title>" + title + "</title>";
-      if (cacheAssets) {
-        titleCache.put(cacheKey, title);
-      }
+    else {
+      writeTagsForId(FooGlueConstants.TYPE_LINK, id, locale, includeGlobal,
+        out);
     }
-
-    return title;
   }
 
   /**
-   * Returns a list of dynamically created script tags for the locale. Dynamic
-   * scripts are not cached.
+   * Writes out the title tag for the id followed by a newline, if the id has a
+   * title. If includeGlobal is true and a title for the id is not found then
+   * the global title is written.
    * 
-   * @param scripts The script values, used to create the script tags.
+   * @param id The unique id matching an id in a fooglue config file.
    * @param locale The current locale, used to resolve properties.
-   * 
-   * @return A list of dynamically created script tags.
+   * @param includeGlobal Include global title if local not found.
+   * @param out The output to write the title to.
    */
-  public List<String> getDynamicScriptTags(List scripts, Locale locale) {
-
-    // create a new list every time for dynamic scripts
-    List<String> scriptTags = new ArrayList<String>();
-
-    // if we have scripts, loop through
-    if (scripts != null && scripts.size() > 0) {
-      for (int i = 0; i < scripts.size(); i++) {
-
-        // either is a map of attributes or is just a string, create the single
-        // script tag from either
-        Object scriptObj = scripts.get(i);
-        if (scriptObj instanceof Map) {
-          Map<String, String> scriptAttrs = (Map<String, String>)scriptObj;
-          if (scriptAttrs != null && scriptAttrs.size() > 0) {
-            String scriptTag = createScriptTag(scriptAttrs, locale);
-            scriptTags.add(scriptTag);
-          }
-        }
-        else if (scriptObj instanceof String) {
-
-          // set default values for script tag if shorthand string
-          Map<String, String> scriptAttrs = new LinkedHashMap<String, String>();
-          scriptAttrs.put("type", "text/javascript");
-          scriptAttrs.put("src", (String)scriptObj);
-          String scriptTag = createScriptTag(scriptAttrs, locale);
-          scriptTags.add(scriptTag);
-        }
-      }
+  public void writeTitleTagForId(String id, Locale locale,
+    boolean includeGlobal, Appendable out)
+    throws IOException {
+    String title = getTitleTagForId(id, locale, includeGlobal);
+    if (title != null) {
+      out.append(title).append('\n');
     }
-
-    // don't allow the list to be modified by caller
-    Collections.unmodifiableList(scriptTags);
-
-    return scriptTags;
   }
 
   /**
-   * Returns a list of dynamically created meta tags for the locale. Dynamic
-   * meta tags are not cached.
+   * Writes out the pre-rendered fragment for the ids with a single write.
    * 
-   * @param metas The script values, used to create the meta tags.
+   * @param ids The unique ids matching ids in fooglue config files.
    * @param locale The current locale, used to resolve properties.
-   * 
-   * @return A list of dynamically created meta tags.
+   * @param includeGlobal Include global assets.
+   * @param types The FooGlueConstants type flags of the assets to include.
+   * @param out The output to write the fragment to.
    */
-  public List<String> getDynamicMetaTags(List<Map<String, String>> metas,
-    Locale locale) {
-
-    // not in cache create a new list and populate with the global scripts
-    List<String> metaTags = new ArrayList<String>();
-
-    // if we have metas, loop through
-    if (metas != null && metas.size() > 0) {
-      for (Map<String, String> metaAttrs : metas) {
-        if (metaAttrs != null && metaAttrs.size() > 0) {
-          String metaTag = createMetaTag(metaAttrs, locale);
-          metaTags.add(metaTag);
-        }
-      }
-    }
-
-    // don't allow the list to be modified by caller
-    Collections.unmodifiableList(metaTags);
-
-    return metaTags;
+  public void writeFragmentForIds(Collection<String> ids, Locale locale,
+    boolean includeGlobal, int types, Appendable out)
+    throws IOException {
+    out.append(getFragmentForIds(ids, locale, includeGlobal, types)
+      .getContent());
   }
 
   /**
-   * Returns a list of dynamically created link tags for the locale. Dynamic
-   * link tags are not cached.
+   * Writes out the pre-rendered fragment for the ids as UTF-8 bytes, for views
+   * and filters that write to a ServletOutputStream. Cached fragments are
+   * pre-encoded if preEncodeFragments is set.
    * 
-   * @param links The script values, used to create the link tags.
+   * @param ids The unique ids matching ids in fooglue config files.
    * @param locale The current locale, used to resolve properties.
-   * 
-   * @return A list of dynamically created link tags.
+   * @param includeGlobal Include global assets.
+   * @param types The FooGlueConstants type flags of the assets to include.
+   * @param out The output stream to write the fragment to.
    */
-  public List<String> getDynamicLinkTags(List links, Locale locale) {
-
-    // create a new list every time for dynamic links
-    List<String> linkTags = new ArrayList<String>();
+  public void writeFragmentForIds(Collection<String> ids, Locale locale,
+    boolean includeGlobal, int types, OutputStream out)
+    throws IOException {
+    getFragmentForIds(ids, locale, includeGlobal, types).writeTo(out);
+  }
 
-    // if we have links, loop through
-    if (links != null && links.size() > 0) {
-      for (int i = 0; i < links.size(); i++) {
-
-        // either is a map of attributes or is just a string, create the single
-        // link tag from either
-        Object linkObj = links.get(i);
-        if (linkObj instanceof Map) {
-          Map<String, String> linkAttrs = (Map<String, String>)linkObj;
-          if (linkAttrs != null && linkAttrs.size() > 0) {
-            String linkTag = createLinkTag(linkAttrs, locale);
-            linkTags.add(linkTag);
-          }
-        }
-        else if (linkObj instanceof String) {
-
-          // set default values for link tag if shorthand string
-          Map<String, String> linkAttrs = new LinkedHashMap<String, String>();
-          linkAttrs.put("rel", "stylesheet");
-          linkAttrs.put("type", "text/css");
-          linkAttrs.put("href", (String)linkObj);
-          String linkTag = createLinkTag(linkAttrs, locale);
-          linkTags.add(linkTag);
-        }
-      }
-    }
+  /**
+   * Writes out dynamically created script tags for the locale, each followed
+   * by a newline, without creating a list of tags.
+   * 
+   * @param scripts The script values, used to create the script tags.
+   * @param locale The current locale, used to resolve properties.
+   * @param out The output to write the tags to.
+   */
+  public void writeDynamicScriptTags(List scripts, Locale locale,
+    Appendable out)
+    throws IOException {
+    writeDynamicTags(FooGlueConstants.TYPE_SCRIPT, scripts, locale, out);
+  }
 
-    // don't allow the list to be modified by caller
-    Collections.unmodifiableList(linkTags);
+  /**
+   * Writes out dynamically created meta tags for the locale, each followed by
+   * a newline, without creating a list of tags.
+   * 
+   * @param metas The meta values, used to create the meta tags.
+   * @param locale The current locale, used to resolve properties.
+   * @param out The output to write the tags to.
+   */
+  public void writeDynamicMetaTags(List<Map<String, String>> metas,
+    Locale locale, Appendable out)
+    throws IOException {
+    writeDynamicTags(FooGlueConstants.TYPE_META, metas, locale, out);
+  }
 
-    return linkTags;
+  /**
+   * Writes out dynamically created link tags for the locale, each followed by
+   * a newline, without creating a list of tags.
+   * 
+   * @param links The link values, used to create the link tags.
+   * @param locale The current locale, used to resolve properties.
+   * @param out The output to write the tags to.
+   */
+  public void writeDynamicLinkTags(List links, Locale locale, Appendable out)
+    throws IOException {
+    writeDynamicTags(FooGlueConstants.TYPE_LINK, links, locale, out);
   }
 
   /**
-   * Returns a dynamically created title tags for the locale. Dynamic title tags
-   * are not cached.
+   * Writes out a dynamically created title tag for the locale followed by a
+   * newline, if the title isn't blank.
    * 
    * @param title The title value, used to create the title tag.
    * @param locale The current locale, used to resolve properties.
-   * 
-   * @return A dynamically created title tag.
+   * @param out The output to write the title to.
    */
-  public String getDynamicTitleTag(String title, Locale locale) {
-
-    // convert to message if necessary
+  public void writeDynamicTitleTag(String title, Locale locale, Appendable out)
+    throws IOException {
     if (StringUtils.isNotBlank(title)) {
-      title = resolveProperty(title, locale);
-      title = "<title>" + title + "</title>";
+      out.append(getDynamicTitleTag(title, locale)).append('\n');
     }
-    return title;
   }
 
   public void setConfigResources(Resource[] configResources) {
@@ -1345,6 +3545,255 @@ public class FooGlueServiceImpl
     this.messageSource = messageSource;
   }
 
+  public int getRenderCacheMaxSize() {
+    return renderCacheMaxSize;
+  }
+
+  public void setRenderCacheMaxSize(int renderCacheMaxSize) {
+    this.renderCacheMaxSize = renderCacheMaxSize;
+  }
+
+  public Locale[] getWarmupLocales() {
+    return warmupLocales;
+  }
+
+  /**
+   * Sets the locales to pre-render all ids for on startup and after reloads,
+   * as locale strings such as en_US. Pre-rendering only happens when caching
+   * assets.
+   */
+  public void setWarmupLocales(String[] warmupLocales) {
+    List<Locale> locales = new ArrayList<Locale>();
+    if (warmupLocales != null) {
+      for (String warmupLocale : warmupLocales) {
+        if (StringUtils.isNotBlank(warmupLocale)) {
+          locales.add(LocaleUtils.toLocale(StringUtils.trim(warmupLocale)));
+        }
+      }
+    }
+    this.warmupLocales = locales.toArray(new Locale[locales.size()]);
+  }
+
+  public int getLoadThreads() {
+    return loadThreads;
+  }
+
+  /**
+   * Sets the number of threads used to parse configs and minify and cache
+   * their assets in parallel when loading, 1 loads them one at a time.
+   * Defaults to the number of processors.
+   */
+  public void setLoadThreads(int loadThreads) {
+    this.loadThreads = loadThreads;
+  }
+
+  public boolean isKeepCacheOnShutdown() {
+    return keepCacheOnShutdown;
+  }
+
+  /**
+   * Keeps the cache directory on shutdown, along with a manifest of the cached
+   * assets, so the next start reuses the cached and minified assets that
+   * haven't changed instead of making them again. Off by default, removing the
+   * cache directory on shutdown.
+   */
+  public void setKeepCacheOnShutdown(boolean keepCacheOnShutdown) {
+    this.keepCacheOnShutdown = keepCacheOnShutdown;
+  }
+
+  public boolean isBundleAssets() {
+    return bundleAssets;
+  }
+
+  /**
+   * Joins the scripts, and separately the stylesheets, of each entry into a
+   * cached bundle, so a page loads one file of each instead of many. Only
+   * cached assets without other attributes are bundled, so this only applies
+   * when caching assets. Off by default.
+   */
+  public void setBundleAssets(boolean bundleAssets) {
+    this.bundleAssets = bundleAssets;
+  }
+
+  public boolean isGzipAssets() {
+    return gzipAssets;
+  }
+
+  /**
+   * Writes a gzipped copy, at the best compression, next to each cached asset
+   * and bundle with a .gz extension, so web servers can send it as is instead
+   * of compressing the asset on every request. Only applies when caching
+   * assets. Off by default.
+   */
+  public void setGzipAssets(boolean gzipAssets) {
+    this.gzipAssets = gzipAssets;
+  }
+
+  public int getGzipMinSize() {
+    return gzipMinSize;
+  }
+
+  /**
+   * Sets the size in bytes a cached asset must be to have a gzipped copy,
+   * smaller assets don't gain enough from compression. Defaults to 1024.
+   */
+  public void setGzipMinSize(int gzipMinSize) {
+    this.gzipMinSize = gzipMinSize;
+  }
+
+  public int getSharedBundleIds() {
+    return sharedBundleIds;
+  }
+
+  /**
+   * When bundling, puts the assets used by more than this many ids in shared
+   * bundles apart from the assets of each id, so the shared assets aren't
+   * downloaded again in every page bundle. Shared bundles are planned again
+   * each time the configs reload. Defaults to 0, no shared bundles.
+   */
+  public void setSharedBundleIds(int sharedBundleIds) {
+    this.sharedBundleIds = sharedBundleIds;
+  }
+
+  public boolean isSharedCacheDir() {
+    return sharedCacheDir;
+  }
+
+  /**
+   * Marks the cache directory as shared by multiple servers, such as on a
+   * network file system. Cached files are always written to a temp file and
+   * renamed into place, and each file is locked while it is made, so only one
+   * server makes it and the others reuse it. A shared cache directory is never
+   * removed or cleared.
+   */
+  public void setSharedCacheDir(boolean sharedCacheDir) {
+    this.sharedCacheDir = sharedCacheDir;
+  }
+
+  public long getMinifyTimeout() {
+    return minifyTimeout;
+  }
+
+  /**
+   * Sets the milliseconds an asset can take to minify in the background before
+   * it is abandoned and the original is used. Defaults to 30 seconds.
+   */
+  public void setMinifyTimeout(long minifyTimeout) {
+    this.minifyTimeout = minifyTimeout;
+  }
+
+  public int getMinifyThreads() {
+    return minifyThreads;
+  }
+
+  /**
+   * Sets the number of assets minified at the same time in the background.
+   * Assets are only minified in the background when changes are reloaded,
+   * otherwise they are minified when loaded.
+   */
+  public void setMinifyThreads(int minifyThreads) {
+    this.minifyThreads = minifyThreads;
+  }
+
+  public int getWarmupThreads() {
+    return warmupThreads;
+  }
+
+  public void setWarmupThreads(int warmupThreads) {
+    this.warmupThreads = warmupThreads;
+  }
+
+  public int getPropertyCacheMaxSize() {
+    return propertyCacheMaxSize;
+  }
+
+  public long getReloadQuietPeriod() {
+    return reloadQuietPeriod;
+  }
+
+  public void setReloadQuietPeriod(long reloadQuietPeriod) {
+    this.reloadQuietPeriod = reloadQuietPeriod;
+  }
+
+  public boolean isWatchForChanges() {
+    return watchForChanges;
+  }
+
+  public void setWatchForChanges(boolean watchForChanges) {
+    this.watchForChanges = watchForChanges;
+  }
+
+  public int getWatchFullCheckIntervals() {
+    return watchFullCheckIntervals;
+  }
+
+  /**
+   * Sets the number of reload intervals between checks of every monitored
+   * file when watching for changes, catching changes the file system doesn't
+   * report, such as changes made by other servers to an NFS mount. Zero only
+   * checks the files the file system reports changes for.
+   */
+  public void setWatchFullCheckIntervals(int watchFullCheckIntervals) {
+    this.watchFullCheckIntervals = watchFullCheckIntervals;
+  }
+
+  public String[] getPolledDirs() {
+    return polledDirs;
+  }
+
+  /**
+   * Sets the directories whose files are always polled every reload interval
+   * instead of watched, for file systems that accept a watch but don't report
+   * every change.
+   */
+  public void setPolledDirs(String[] polledDirs) {
+    this.polledDirs = polledDirs;
+  }
+
+  public int getDynamicCacheMaxSize() {
+    return dynamicCacheMaxSize;
+  }
+
+  public void setDynamicCacheMaxSize(int dynamicCacheMaxSize) {
+    this.dynamicCacheMaxSize = dynamicCacheMaxSize;
+  }
+
+  public int getDynamicCacheSize() {
+    return dynamicCache.size();
+  }
+
+  public boolean isPreEncodeFragments() {
+    return preEncodeFragments;
+  }
+
+  public void setPreEncodeFragments(boolean preEncodeFragments) {
+    this.preEncodeFragments = preEncodeFragments;
+  }
+
+  public void setPropertyCacheMaxSize(int propertyCacheMaxSize) {
+    this.propertyCacheMaxSize = propertyCacheMaxSize;
+  }
+
+  public int getRenderCacheSize() {
+    return renderCache.size();
+  }
+
+  public long getRenderCacheHitCount() {
+    return renderCache.getHitCount();
+  }
+
+  public long getRenderCacheMissCount() {
+    return renderCache.getMissCount();
+  }
+
+  public long getRenderCacheEvictionCount() {
+    return renderCache.getEvictionCount();
+  }
+
+  public long getRenderCacheRejectionCount() {
+    return renderCache.getRejectionCount();
+  }
+
   public boolean isRequireIdForAssets() {
     return requireIdForAssets;
   }
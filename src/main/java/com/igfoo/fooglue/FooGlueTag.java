@@ -1,13 +1,10 @@
 package com.igfoo.fooglue;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.AbstractList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.jsp.JspException;
@@ -15,8 +12,6 @@ import javax.servlet.jsp.JspWriter;
 import javax.servlet.jsp.tagext.TagSupport;
 
 import org.apache.commons.lang.StringUtils;
-import org.springframework.web.context.WebApplicationContext;
-import org.springframework.web.servlet.support.RequestContextUtils;
 
 /**
  * <p>JSTL Tag that writes out fooglue assets including script tags, link tags,
@@ -40,17 +35,17 @@ import org.springframework.web.servlet.support.RequestContextUtils;
 public class FooGlueTag
   extends TagSupport {
 
-  private String types;
-  private String ids;
+  private int typeFlags = FooGlueConstants.TYPE_ALL;
+  private List<String> ids;
   private boolean includeGlobal = false;
   private boolean includeDynamic = false;
 
   public void setTypes(String types) {
-    this.types = types;
+    this.typeFlags = FooGlueUtils.parseTypes(types);
   }
 
   public void setIds(String ids) {
-    this.ids = ids;
+    this.ids = (ids != null) ? FooGlueRequestContext.parseIds(ids) : null;
   }
 
   public void setIncludeGlobal(boolean includeGlobal) {
@@ -61,184 +56,163 @@ public class FooGlueTag
     this.includeDynamic = includeDynamic;
   }
 
+  /**
+   * A read only view of the pre-rendered tags followed by the dynamic tags,
+   * put into the request without copying either list.
+   */
+  private static class JoinedTags
+    extends AbstractList<String> {
+
+    private final List<String> first;
+    private final List<String> second;
+
+    JoinedTags(List<String> first, List<String> second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    public String get(int index) {
+      int firstSize = first.size();
+      return (index < firstSize) ? first.get(index) : second.get(index
+        - firstSize);
+    }
+
+    public int size() {
+      return first.size() + second.size();
+    }
+  }
+
+  /**
+   * Writes out the pre-rendered tags for a single asset type followed by any
+   * dynamic tags and puts all of the tags into the request.
+   */
+  private void writeTags(JspWriter out, HttpServletRequest request,
+    String requestKey, List<String> tags, String content,
+    List<String> dynamicTags)
+    throws IOException {
+
+    out.write(content);
+    List<String> allTags = tags;
+    if (dynamicTags != null && dynamicTags.size() > 0) {
+      for (int i = 0; i < dynamicTags.size(); i++) {
+        out.write(dynamicTags.get(i));
+        out.write('\n');
+      }
+      allTags = tags.isEmpty() ? dynamicTags : new JoinedTags(tags,
+        dynamicTags);
+    }
+
+    if (allTags.size() > 0) {
+      request.setAttribute(requestKey, allTags);
+    }
+  }
+
   public int doStartTag()
     throws JspException {
 
     try {
 
-      // get the fooglue service from the Spring web application context
+      // the ids, locale, and service are resolved once per request
       HttpServletRequest request = (HttpServletRequest)pageContext.getRequest();
-      WebApplicationContext context = RequestContextUtils
-        .getWebApplicationContext(request);
-      FooGlueService fg = (FooGlueService)context.getBean("fooGlueService");
-
-      // get the current locale and the output writer
-      Locale curLocale = request.getLocale();
+      FooGlueRequestContext requestContext = FooGlueUtils
+        .getRequestContext(request);
+      FooGlueService fg = requestContext.getService();
+      Locale curLocale = requestContext.getLocale();
       JspWriter out = pageContext.getOut();
 
       if (request != null) {
 
-        // get the types of assets for this tag
-        Set<String> typeSet = new HashSet<String>();
-        boolean allTypes = StringUtils.isBlank(types);
-        if (!allTypes) {
-          String[] includeTypesAr = StringUtils.split(types, ",");
-          for (String includeType : includeTypesAr) {
-            includeType = StringUtils.trim(StringUtils.lowerCase(includeType));
-            typeSet.add(includeType);
-          }
-        }
-
         // are ids hardcoded on the tag itself, overrides anything specified
         // in the request. an id must be specified either on the tag or in the
-        // request, even though they don't have to exist in the configuration
-        boolean tagSpecifiedIds = (this.ids != null);
-        String idStr = (tagSpecifiedIds) ? this.ids : (String)request
-          .getAttribute(FooGlueConstants.IDS);
-
-        // dedup tag ids, keep in order
-        Set<String> tagIdSet = new LinkedHashSet<String>();
-        for (String tagId : StringUtils.split(idStr, ",")) {
-          tagId = StringUtils.trim(tagId);
-          tagIdSet.add(tagId);
+        // request, even though they don't have to exist in the configuration.
+        // fragments for the request ids are shared by all tags in the request
+        FooGlueFragment fragment = null;
+        if (this.ids != null) {
+          fragment = fg.getFragmentForIds(this.ids, curLocale, includeGlobal,
+            typeFlags);
+        }
+        else {
+          fragment = requestContext.getFragment(includeGlobal, typeFlags);
         }
 
-        // process the title
-        if (allTypes || types.contains("title")) {
-
-          String title = null;
-
-          // use only the first title found for an id, can't have multiple
-          for (String tagId : tagIdSet) {
-            title = fg.getTitleTagForId(tagId, curLocale, includeGlobal);
-            if (StringUtils.isNotBlank(title)) {
-              break;
-            }
+        // without dynamic assets the whole fragment is written at once
+        if (!includeDynamic) {
+          fragment.writeTo(out);
+          if (fragment.getTitleTag() != null) {
+            request.setAttribute(FooGlueConstants.TITLE_TAG,
+              fragment.getTitleTag());
+          }
+          if (!fragment.getMetaTags().isEmpty()) {
+            request.setAttribute(FooGlueConstants.META_TAGS,
+              fragment.getMetaTags());
           }
+          if (!fragment.getLinkTags().isEmpty()) {
+            request.setAttribute(FooGlueConstants.LINK_TAGS,
+              fragment.getLinkTags());
+          }
+          if (!fragment.getScriptTags().isEmpty()) {
+            request.setAttribute(FooGlueConstants.SCRIPT_TAGS,
+              fragment.getScriptTags());
+          }
+          return SKIP_BODY;
+        }
 
-          // dynamic titles from controller will override any title for id if
-          // we are including dynamic titles
-          if (includeDynamic) {
-            String dynTitle = (String)request
-              .getAttribute(FooGlueConstants.TITLE);
-            if (StringUtils.isNotBlank(dynTitle)) {
-              String locTitle = fg.getDynamicTitleTag(dynTitle, curLocale);
-              if (StringUtils.isNotBlank(locTitle)) {
-                title = locTitle;
-              }
+        // process the title
+        if ((typeFlags & FooGlueConstants.TYPE_TITLE) != 0) {
+
+          // dynamic titles from controller will override any title for id
+          String title = fragment.getTitleTag();
+          String dynTitle = (String)request.getAttribute(FooGlueConstants.TITLE);
+          if (StringUtils.isNotBlank(dynTitle)) {
+            String locTitle = fg.getDynamicTitleTag(dynTitle, curLocale);
+            if (StringUtils.isNotBlank(locTitle)) {
+              title = locTitle;
             }
           }
 
           // write out the title
           if (StringUtils.isNotBlank(title)) {
-            out.print(title + "\n");
+            out.write(title);
+            out.write('\n');
             request.setAttribute(FooGlueConstants.TITLE_TAG, title);
           }
         }
 
         // process the meta tags
-        if (allTypes || types.contains("meta")) {
-
-          // get all meta tags for the ids first
-          List<String> allMetaTags = new ArrayList<String>();
-          for (String tagId : tagIdSet) {
-            List<String> metaTags = fg.getMetaTagsForId(tagId, curLocale,
-              includeGlobal);
-            if (metaTags != null && metaTags.size() > 0) {
-              allMetaTags.addAll(metaTags);
-            }
-          }
-
-          // include dynamic meta tags if specified and including
-          if (includeDynamic) {
-            List<Map<String, String>> requestMetaTags = (List<Map<String, String>>)request
-              .getAttribute(FooGlueConstants.METAS);
-            if (requestMetaTags != null && requestMetaTags.size() > 0) {
-              List<String> dynamicMetaTags = fg.getDynamicMetaTags(
-                requestMetaTags, curLocale);
-              if (allMetaTags != null && dynamicMetaTags.size() > 0) {
-                allMetaTags.addAll(dynamicMetaTags);
-              }
-            }
-          }
-
-          // write out the meta tags and put into request
-          if (allMetaTags != null && !allMetaTags.isEmpty()) {
-            for (String metaTag : allMetaTags) {
-              out.print(metaTag + "\n");
-            }
-            request.setAttribute(FooGlueConstants.META_TAGS, allMetaTags);
+        if ((typeFlags & FooGlueConstants.TYPE_META) != 0) {
+          List<Map<String, String>> requestMetaTags = (List<Map<String, String>>)request
+            .getAttribute(FooGlueConstants.METAS);
+          List<String> dynamicMetaTags = null;
+          if (requestMetaTags != null && requestMetaTags.size() > 0) {
+            dynamicMetaTags = fg.getDynamicMetaTags(requestMetaTags, curLocale);
           }
+          writeTags(out, request, FooGlueConstants.META_TAGS,
+            fragment.getMetaTags(), fragment.getMetaContent(), dynamicMetaTags);
         }
 
         // process the link tags
-        if (allTypes || types.contains("link")) {
-
-          // get all link tags for the ids first
-          List<String> allLinkTags = new ArrayList<String>();
-          for (String tagId : tagIdSet) {
-            List<String> linkTags = fg.getLinkTagsForId(tagId, curLocale,
-              includeGlobal);
-            if (linkTags != null && linkTags.size() > 0) {
-              allLinkTags.addAll(linkTags);
-            }
-          }
-
-          // include dynamic link tags if specified and including
-          if (includeDynamic) {
-            List<Map<String, String>> requestLinkTags = (List<Map<String, String>>)request
-              .getAttribute(FooGlueConstants.LINKS);
-            if (requestLinkTags != null && requestLinkTags.size() > 0) {
-              List<String> dynamicLinkTags = fg.getDynamicLinkTags(
-                requestLinkTags, curLocale);
-              if (dynamicLinkTags != null && dynamicLinkTags.size() > 0) {
-                allLinkTags.addAll(dynamicLinkTags);
-              }
-            }
-          }
-
-          // write out the link tags and put into request
-          if (allLinkTags != null && allLinkTags.size() > 0) {
-            for (String linkTag : allLinkTags) {
-              out.print(linkTag + "\n");
-            }
-            request.setAttribute(FooGlueConstants.LINK_TAGS, allLinkTags);
+        if ((typeFlags & FooGlueConstants.TYPE_LINK) != 0) {
+          List requestLinkTags = (List)request
+            .getAttribute(FooGlueConstants.LINKS);
+          List<String> dynamicLinkTags = null;
+          if (requestLinkTags != null && requestLinkTags.size() > 0) {
+            dynamicLinkTags = fg.getDynamicLinkTags(requestLinkTags, curLocale);
           }
+          writeTags(out, request, FooGlueConstants.LINK_TAGS,
+            fragment.getLinkTags(), fragment.getLinkContent(), dynamicLinkTags);
         }
 
         // process script tags
-        if (allTypes || types.contains("script")) {
-
-          // get all link tags for the ids first
-          List<String> allScriptTags = new ArrayList<String>();
-          for (String tagId : tagIdSet) {
-            List<String> scriptTags = fg.getScriptTagsForId(tagId,
-              curLocale, includeGlobal);
-            if (scriptTags != null && scriptTags.size() > 0) {
-              allScriptTags.addAll(scriptTags);
-            }
-          }
-
-          // include dynamic link tags if specified and including
-          if (includeDynamic) {
-            List<Map<String, String>> requestScripts = (List<Map<String, String>>)request
-              .getAttribute(FooGlueConstants.SCRIPTS);
-            if (requestScripts != null && requestScripts.size() > 0) {
-              List<String> dynamicScripts = fg.getDynamicScriptTags(
-                requestScripts, curLocale);
-              if (dynamicScripts != null && dynamicScripts.size() > 0) {
-                allScriptTags.addAll(dynamicScripts);
-              }
-            }
-          }
-
-          // write out the script tags and put into request
-          if (allScriptTags != null && allScriptTags.size() > 0) {
-            for (String scriptTag : allScriptTags) {
-              out.print(scriptTag + "\n");
-            }
-            request.setAttribute(FooGlueConstants.SCRIPT_TAGS, allScriptTags);
+        if ((typeFlags & FooGlueConstants.TYPE_SCRIPT) != 0) {
+          List requestScripts = (List)request
+            .getAttribute(FooGlueConstants.SCRIPTS);
+          List<String> dynamicScripts = null;
+          if (requestScripts != null && requestScripts.size() > 0) {
+            dynamicScripts = fg.getDynamicScriptTags(requestScripts, curLocale);
           }
+          writeTags(out, request, FooGlueConstants.SCRIPT_TAGS,
+            fragment.getScriptTags(), fragment.getScriptContent(),
+            dynamicScripts);
         }
       }
 
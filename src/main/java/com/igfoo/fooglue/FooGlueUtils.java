@@ -3,6 +3,8 @@ package com.igfoo.fooglue;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang.StringUtils;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
 /**
  * Utility methods for passing request configuration from the Spring controller
@@ -19,6 +21,8 @@ public class FooGlueUtils {
    */
   public static void setupRequest(HttpServletRequest request, String id) {
     request.setAttribute(FooGlueConstants.IDS, id);
+    request.setAttribute(FooGlueConstants.REQUEST_CONTEXT,
+      new FooGlueRequestContext(id, request.getLocale(), null));
   }
 
   /**
@@ -31,5 +35,68 @@ public class FooGlueUtils {
   public static void setupRequest(HttpServletRequest request, String[] ids) {
     String idStr = StringUtils.join(ids, ",");
     request.setAttribute(FooGlueConstants.IDS, idStr);
+    request.setAttribute(FooGlueConstants.REQUEST_CONTEXT,
+      new FooGlueRequestContext(idStr, request.getLocale(), null));
+  }
+
+  /**
+   * Returns the resolved fooglue context for the request, creating it on first
+   * use. The context is recreated if the ids in the request have changed since
+   * it was created. The fooglue service is looked up from the Spring web
+   * application context only once per request.
+   * 
+   * @param request The current HttpServletRequest.
+   * 
+   * @return The fooglue context for the request.
+   */
+  public static FooGlueRequestContext getRequestContext(
+    HttpServletRequest request) {
+
+    String idStr = (String)request.getAttribute(FooGlueConstants.IDS);
+    FooGlueRequestContext context = (FooGlueRequestContext)request
+      .getAttribute(FooGlueConstants.REQUEST_CONTEXT);
+    if (context == null || !context.isFor(idStr)) {
+      context = new FooGlueRequestContext(idStr, request.getLocale(), null);
+      request.setAttribute(FooGlueConstants.REQUEST_CONTEXT, context);
+    }
+
+    // get the fooglue service from the Spring web application context
+    if (context.getService() == null) {
+      WebApplicationContext appContext = RequestContextUtils
+        .getWebApplicationContext(request);
+      context.setService((FooGlueService)appContext.getBean("fooGlueService"));
+    }
+    return context;
+  }
+
+  /**
+   * Converts a comma separated list of asset types, such as "title,meta", into
+   * the FooGlueConstants type flags. A blank types string means all types.
+   *
+   * @param types The asset types, any of title, meta, link, and script.
+   *
+   * @return The asset type flags.
+   */
+  public static int parseTypes(String types) {
+
+    if (StringUtils.isBlank(types)) {
+      return FooGlueConstants.TYPE_ALL;
+    }
+
+    // match the types the same way the FooGlueTag always has
+    int typeFlags = 0;
+    if (types.contains("title")) {
+      typeFlags |= FooGlueConstants.TYPE_TITLE;
+    }
+    if (types.contains("meta")) {
+      typeFlags |= FooGlueConstants.TYPE_META;
+    }
+    if (types.contains("link")) {
+      typeFlags |= FooGlueConstants.TYPE_LINK;
+    }
+    if (types.contains("script")) {
+      typeFlags |= FooGlueConstants.TYPE_SCRIPT;
+    }
+    return typeFlags;
   }
 }
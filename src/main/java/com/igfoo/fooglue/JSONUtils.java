@@ -1,23 +1,41 @@
 package com.igfoo.fooglue;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
-import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.map.MappingJsonFactory;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.TextNode;
 
 public class JSONUtils {
 
+  // mappers and factories are thread safe once configured, so a single one is
+  // shared instead of creating one, and its caches, on every call
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  /**
+   * Returns the shared, thread safe, ObjectMapper. It must not be configured.
+   */
+  public static ObjectMapper getMapper() {
+    return MAPPER;
+  }
+
+  /**
+   * Returns the shared, thread safe, JsonFactory of the shared ObjectMapper.
+   */
+  public static JsonFactory getFactory() {
+    return MAPPER.getJsonFactory();
+  }
+
   public static boolean looksLikeJson(String content) {
     return StringUtils.trim(content).startsWith("{");
   }
@@ -25,10 +43,9 @@ public class JSONUtils {
   public static JsonNode parseJson(String json)
     throws IOException {
 
-    ObjectMapper mapper = new ObjectMapper();
     JsonNode root = null;
     try {
-      root = mapper.readValue(new StringReader(json), JsonNode.class);
+      root = MAPPER.readValue(new StringReader(json), JsonNode.class);
     }
     catch (Exception e) {
       throw new IOException("JsonConfig is invalid", e);
@@ -36,6 +53,32 @@ public class JSONUtils {
     return root;
   }
 
+  /**
+   * Parses a JSON file into a tree with the shared mapper, instead of creating
+   * a mapper and factory for every file.
+   * 
+   * @param file The JSON file.
+   * 
+   * @return The root node.
+   * 
+   * @throws IOException If the file can't be read or isn't valid JSON.
+   */
+  public static JsonNode parseJson(File file)
+    throws IOException {
+
+    JsonParser parser = getFactory().createJsonParser(file);
+    try {
+      JsonNode root = MAPPER.readTree(parser);
+      if (root == null) {
+        throw new IOException("No content in " + file.getPath());
+      }
+      return root;
+    }
+    finally {
+      parser.close();
+    }
+  }
+
   public static String getStringValue(JsonNode parent, String name) {
     JsonNode node = parent.get(name);
     if (node != null) {
@@ -74,14 +117,7 @@ public class JSONUtils {
 
     try {
 
-      StringWriter sw = new StringWriter(); // serialize
-      ObjectMapper mapper = new ObjectMapper();
-      MappingJsonFactory jsonFactory = new MappingJsonFactory();
-      JsonGenerator jsonGenerator = jsonFactory.createJsonGenerator(sw);
-      mapper.writeValue(jsonGenerator, object);
-      sw.close();
-
-      return sw.toString();
+      return MAPPER.writeValueAsString(object);
     }
     catch (Exception e) {
       return null;
@@ -91,10 +127,7 @@ public class JSONUtils {
   public static Object deserializeFromJson(String json, Class valueType) {
 
     try {
-      ObjectMapper mapper = new ObjectMapper();
-      MappingJsonFactory jsonFactory = new MappingJsonFactory();
-      JsonParser jsonParser = jsonFactory.createJsonParser(json);
-      return mapper.readValue(jsonParser, valueType);
+      return MAPPER.readValue(json, valueType);
     }
     catch (Exception e) {
       return null;
@@ -111,6 +144,27 @@ public class JSONUtils {
     return fieldNames;
   }
 
+  /**
+   * Returns the text values of the fields of an object node that aren't
+   * blank, in order, walking the fields once instead of looking up each name.
+   * 
+   * @param node The object node, can be null.
+   * @param values The map to add the field names and values to.
+   */
+  public static void getTextFields(JsonNode node, Map<String, String> values) {
+    if (node == null) {
+      return;
+    }
+    Iterator<Map.Entry<String, JsonNode>> fieldIt = node.getFields();
+    while (fieldIt.hasNext()) {
+      Map.Entry<String, JsonNode> field = fieldIt.next();
+      String value = field.getValue().asText();
+      if (StringUtils.isNotBlank(value)) {
+        values.put(field.getKey(), value);
+      }
+    }
+  }
+
   public static List<String> getStringValues(JsonNode node) {
 
     List<String> strVals = new ArrayList<String>();
@@ -0,0 +1,42 @@
+package com.igfoo.fooglue;
+
+import java.util.Locale;
+
+/**
+ * The key for a resolved property in the property cache, the property name and
+ * the locale it was resolved for.
+ */
+final class PropertyKey {
+
+  private final String name;
+  private final Locale locale;
+  private final int hash;
+
+  PropertyKey(String name, Locale locale) {
+    this.name = name;
+    this.locale = locale;
+    this.hash = 31 * name.hashCode() + locale.hashCode();
+  }
+
+  Locale getLocale() {
+    return locale;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PropertyKey)) {
+      return false;
+    }
+    PropertyKey other = (PropertyKey)obj;
+    return hash == other.hash && name.equals(other.name)
+      && locale.equals(other.locale);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -0,0 +1,189 @@
+package com.igfoo.fooglue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>The render cache, indexed by the ids each rendered result contains.</p>
+ *
+ * <p>Every cached render is indexed under each of its ids, across all locales,
+ * types, fragments, and with and without global assets. When an id changes
+ * exactly the renders containing it can be removed, without scanning the
+ * whole cache. Entries are removed from the index when they are evicted,
+ * removed, or the cache is cleared.</p>
+ *
+ * <p>The index is only changed when renders are cached or removed, which only
+ * happens on a cache miss or a reload, so it is guarded by a single lock.
+ * Cache reads never touch the index.</p>
+ *
+ * <p>Renders made from a snapshot that has since been replaced must not be
+ * cached after the reload has replaced the renders of the changed ids. The
+ * cache has a generation, which is odd while a new snapshot is published.
+ * Requests read the generation before reading the snapshot and only cache
+ * their render if the generation is still the same and even. The generation
+ * is checked again after the put, without locking, and the render removed if
+ * a publish started in between, so a render started before or during a
+ * publish is never left cached over the renders the publish replaced.</p>
+ */
+final class RenderCache
+  extends FooGlueCache<RenderKey, Object> {
+
+  private final Map<String, Set<RenderKey>> keysById = new HashMap<String, Set<RenderKey>>();
+  private final Object publishLock = new Object();
+  private volatile long generation = 0;
+
+  RenderCache(int maximumSize) {
+    super(maximumSize);
+  }
+
+  private void index(RenderKey key) {
+    synchronized (keysById) {
+      for (String id : key.getIds()) {
+        Set<RenderKey> keys = keysById.get(id);
+        if (keys == null) {
+          keys = new HashSet<RenderKey>();
+          keysById.put(id, keys);
+        }
+        keys.add(key);
+      }
+    }
+  }
+
+  private void unindex(RenderKey key) {
+    synchronized (keysById) {
+      for (String id : key.getIds()) {
+        Set<RenderKey> keys = keysById.get(id);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+          keysById.remove(id);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean put(RenderKey key, Object value) {
+    if (!super.put(key, value)) {
+      return false;
+    }
+
+    // the entry could have been evicted before it was indexed
+    index(key);
+    if (!containsKey(key)) {
+      unindex(key);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the generation, read by requests before reading the snapshot they
+   * render from.
+   */
+  long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Starts publishing a new snapshot, called before the snapshot is replaced.
+   * Renders started before now are no longer cached.
+   */
+  void beginPublish() {
+    synchronized (publishLock) {
+      generation++;
+    }
+  }
+
+  /**
+   * Finishes publishing a new snapshot, called once the renders of the changed
+   * ids are replaced or removed. Renders started from now on are cached.
+   */
+  void endPublish() {
+    synchronized (publishLock) {
+      generation++;
+    }
+  }
+
+  /**
+   * Caches the render of a request if no snapshot was published since the
+   * request read the generation.
+   *
+   * @param key The cache key.
+   * @param value The render.
+   * @param readGeneration The generation read before reading the snapshot.
+   *
+   * @return True if the render was cached.
+   */
+  boolean put(RenderKey key, Object value, long readGeneration) {
+
+    if (readGeneration != generation || (readGeneration & 1) != 0) {
+      return false;
+    }
+
+    // a publish that started during the put may have already removed the
+    // renders of its ids, so remove the render again. at worst this removes a
+    // render cached by a newer request, which is made again on its next miss
+    boolean added = put(key, value);
+    if (readGeneration != generation) {
+      remove(key);
+      return false;
+    }
+    return added;
+  }
+
+  @Override
+  public Object remove(RenderKey key) {
+    unindex(key);
+    return super.remove(key);
+  }
+
+  @Override
+  protected void onEviction(RenderKey key, Object value) {
+    unindex(key);
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    synchronized (keysById) {
+      keysById.clear();
+    }
+  }
+
+  /**
+   * Returns a copy of the keys of all cached renders that contain the id.
+   *
+   * @param id The asset id.
+   *
+   * @return The keys of the renders containing the id.
+   */
+  Set<RenderKey> getKeys(String id) {
+    synchronized (keysById) {
+      Set<RenderKey> keys = keysById.get(id);
+      if (keys == null) {
+        return Collections.emptySet();
+      }
+      return new HashSet<RenderKey>(keys);
+    }
+  }
+
+  /**
+   * Removes every cached render containing any of the ids.
+   *
+   * @param ids The asset ids.
+   *
+   * @return The number of renders removed.
+   */
+  int removeIds(Iterable<String> ids) {
+    int removed = 0;
+    for (String id : ids) {
+      for (RenderKey key : getKeys(id)) {
+        if (remove(key) != null) {
+          removed++;
+        }
+      }
+    }
+    return removed;
+  }
+}
@@ -0,0 +1,80 @@
+package com.igfoo.fooglue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * The key for a rendered result in the render cache. A key is made up of the
+ * asset type, the id or ids, the locale, and whether global assets are
+ * included. Fragments cover multiple ids and multiple types.
+ */
+final class RenderKey {
+
+  // fragment keys combine this flag with the FooGlueConstants type flags
+  static final int FRAGMENT = 16;
+
+  private final int type;
+  private final String id;
+  private final String[] ids;
+  private final Locale locale;
+  private final boolean includeGlobal;
+  private final int hash;
+
+  RenderKey(int type, String id, Locale locale, boolean includeGlobal) {
+    this.type = type;
+    this.id = id;
+    this.ids = null;
+    this.locale = locale;
+    this.includeGlobal = includeGlobal;
+    int result = 31 * type + id.hashCode();
+    result = 31 * result + locale.hashCode();
+    this.hash = 31 * result + (includeGlobal ? 1 : 0);
+  }
+
+  RenderKey(int types, Collection<String> ids, Locale locale,
+    boolean includeGlobal) {
+    this.type = FRAGMENT | types;
+    this.id = null;
+    this.ids = ids.toArray(new String[ids.size()]);
+    this.locale = locale;
+    this.includeGlobal = includeGlobal;
+    int result = 31 * type + Arrays.hashCode(this.ids);
+    result = 31 * result + locale.hashCode();
+    this.hash = 31 * result + (includeGlobal ? 1 : 0);
+  }
+
+  int getType() {
+    return type;
+  }
+
+  boolean isIncludeGlobal() {
+    return includeGlobal;
+  }
+
+  /**
+   * Returns the ids whose assets are contained in the rendered result.
+   */
+  String[] getIds() {
+    return (ids != null) ? ids : new String[] {id};
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof RenderKey)) {
+      return false;
+    }
+    RenderKey other = (RenderKey)obj;
+    return hash == other.hash && type == other.type
+      && includeGlobal == other.includeGlobal && locale.equals(other.locale)
+      && ((id != null) ? id.equals(other.id) : Arrays.equals(ids, other.ids));
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+}
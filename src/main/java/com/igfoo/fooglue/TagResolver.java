@@ -0,0 +1,32 @@
+package com.igfoo.fooglue;
+
+import java.util.Locale;
+
+/**
+ * Resolves the locale and file dependent parts of a TagTemplate, the holes
+ * that can't be rendered when the template is compiled.
+ */
+interface TagResolver {
+
+  /**
+   * Returns true if the value is a property, such as [[title]], and needs to
+   * be resolved for each locale.
+   */
+  boolean isProperty(String value);
+
+  /**
+   * Replaces a property with its value in the locale, or returns the original
+   * value if it isn't a property or the property doesn't exist.
+   */
+  String resolveProperty(String property, Locale locale);
+
+  /**
+   * Returns the source of an asset that is embedded in a tag.
+   */
+  String getAssetSource(String assetPath);
+
+  /**
+   * Returns the host prepended to local asset paths or null for none.
+   */
+  String getAssetHost();
+}
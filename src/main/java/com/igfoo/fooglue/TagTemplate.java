@@ -0,0 +1,309 @@
+package com.igfoo.fooglue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * <p>A script, link, or meta tag compiled into literal segments and holes.</p>
+ *
+ * <p>Everything that is known when a config is loaded, tag names, attribute
+ * names and values, and the asset host for local paths, is joined into literal
+ * segments. Only properties, which depend on the locale, and embedded sources
+ * are left as holes to be filled in when the tag is rendered. Tags without any
+ * holes are rendered once, when they are compiled.</p>
+ */
+final class TagTemplate {
+
+  // hole kinds
+  private static final int VALUE = 0;
+  private static final int HOST_VALUE = 1;
+  private static final int SCRIPT_SRC = 2;
+  private static final int EMBED = 3;
+  private static final int ATTRIBUTE = 4;
+  private static final int LINK_ATTRIBUTE = 5;
+
+  static final TagTemplate[] EMPTY = new TagTemplate[0];
+
+  private final AssetTag source;
+  private final String[] literals;
+  private final int[] kinds;
+  private final String[] names;
+  private final String[] values;
+  private final String rendered;
+  private final int length;
+
+  /**
+   * Collects literal segments and holes while a tag is compiled.
+   */
+  private static class Builder {
+
+    private final StringBuilder literal = new StringBuilder();
+    private final List<String> literals = new ArrayList<String>();
+    private final List<Integer> kinds = new ArrayList<Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> values = new ArrayList<String>();
+
+    Builder literal(String text) {
+      literal.append(text);
+      return this;
+    }
+
+    Builder hole(int kind, String name, String value) {
+      literals.add(literal.toString());
+      literal.setLength(0);
+      kinds.add(kind);
+      names.add(name);
+      values.add(value);
+      return this;
+    }
+
+    TagTemplate build(AssetTag source) {
+      literals.add(literal.toString());
+      int[] kindAr = new int[kinds.size()];
+      for (int i = 0; i < kindAr.length; i++) {
+        kindAr[i] = kinds.get(i);
+      }
+      return new TagTemplate(source, literals.toArray(new String[literals
+        .size()]), kindAr, names.toArray(new String[names.size()]),
+        values.toArray(new String[values.size()]));
+    }
+  }
+
+  private TagTemplate(AssetTag source, String[] literals, int[] kinds,
+    String[] names, String[] values) {
+    this.source = source;
+    this.literals = literals;
+    this.kinds = kinds;
+    this.names = names;
+    this.values = values;
+    int literalLength = 0;
+    for (String literal : literals) {
+      literalLength += literal.length();
+    }
+    this.length = literalLength;
+    this.rendered = (kinds.length == 0) ? literals[0] : null;
+  }
+
+  /**
+   * Prepends the asset host to local paths, allowing cookieless domains and
+   * cdn serving.
+   */
+  private static String hosted(String value, String assetHost) {
+    if (assetHost != null && StringUtils.startsWith(value, "/")) {
+      return assetHost + value;
+    }
+    return value;
+  }
+
+  /**
+   * Compiles a script tag. Only the type, src, and embed attributes are used.
+   *
+   * @param tag The script attributes.
+   * @param resolver The resolver for properties and the asset host.
+   *
+   * @return The compiled script tag.
+   */
+  static TagTemplate compileScript(AssetTag tag, TagResolver resolver) {
+
+    Builder builder = new Builder();
+    String type = tag.get("type");
+    String src = tag.get("src");
+    String embed = tag.get("embed");
+
+    builder.literal("<script");
+    if (StringUtils.isNotBlank(type)) {
+      builder.literal(" type=\"").literal(type).literal("\"");
+    }
+    if (resolver.isProperty(src)) {
+      builder.hole(SCRIPT_SRC, null, src);
+    }
+    else if (StringUtils.isNotBlank(src)) {
+      builder.literal(" src=\"")
+        .literal(hosted(src, resolver.getAssetHost())).literal("\"");
+    }
+    builder.literal(">");
+
+    // embedded sources are read when rendered
+    if (StringUtils.isNotBlank(embed)) {
+      builder.hole(EMBED, null, embed);
+    }
+    builder.literal("</script>");
+
+    return builder.build(tag);
+  }
+
+  /**
+   * Compiles a tag where every attribute is written out, such as a meta or link
+   * tag. Link hrefs get the asset host.
+   */
+  private static TagTemplate compileAttributes(String tagName, AssetTag tag,
+    boolean isLink, TagResolver resolver) {
+
+    Builder builder = new Builder();
+    builder.literal("<").literal(tagName);
+    for (int i = 0; i < tag.size(); i++) {
+
+      // if the attribute name is a property everything is decided on render
+      String name = tag.getName(i);
+      String value = tag.getValue(i);
+      if (resolver.isProperty(name)) {
+        builder.hole(isLink ? LINK_ATTRIBUTE : ATTRIBUTE, name, value);
+        continue;
+      }
+
+      if (StringUtils.isNotBlank(name)) {
+        builder.literal(" ").literal(name).literal("=\"");
+      }
+      boolean isHref = isLink && StringUtils.equals(name, "href");
+      if (resolver.isProperty(value)) {
+        builder.hole(isHref ? HOST_VALUE : VALUE, null, value);
+      }
+      else {
+        builder.literal(isHref ? hosted(value, resolver.getAssetHost())
+          : String.valueOf(value));
+      }
+      builder.literal("\"");
+    }
+    builder.literal(" />");
+
+    return builder.build(tag);
+  }
+
+  /**
+   * Compiles a meta tag.
+   *
+   * @param tag The meta attributes.
+   * @param resolver The resolver for properties and the asset host.
+   *
+   * @return The compiled meta tag.
+   */
+  static TagTemplate compileMeta(AssetTag tag, TagResolver resolver) {
+    return compileAttributes("meta", tag, false, resolver);
+  }
+
+  /**
+   * Compiles a link tag.
+   *
+   * @param tag The link attributes.
+   * @param resolver The resolver for properties and the asset host.
+   *
+   * @return The compiled link tag.
+   */
+  static TagTemplate compileLink(AssetTag tag, TagResolver resolver) {
+    return compileAttributes("link", tag, true, resolver);
+  }
+
+  /**
+   * Returns the attributes the template was compiled from.
+   */
+  AssetTag getSource() {
+    return source;
+  }
+
+  /**
+   * Returns true if the template has no holes and is always rendered the same.
+   */
+  boolean isStatic() {
+    return rendered != null;
+  }
+
+  /**
+   * Appends the rendered tag for the locale to the output, without creating an
+   * intermediate string.
+   *
+   * @param builder The output to append to.
+   * @param locale The locale to resolve properties in.
+   * @param resolver The resolver for properties and embedded sources.
+   */
+  void render(Appendable builder, Locale locale, TagResolver resolver)
+    throws IOException {
+
+    if (rendered != null) {
+      builder.append(rendered);
+      return;
+    }
+
+    String assetHost = resolver.getAssetHost();
+    for (int i = 0; i < kinds.length; i++) {
+      builder.append(literals[i]);
+      String value = resolver.resolveProperty(values[i], locale);
+      switch (kinds[i]) {
+        case VALUE:
+          builder.append(value);
+          break;
+        case HOST_VALUE:
+          builder.append(hosted(value, assetHost));
+          break;
+        case SCRIPT_SRC:
+          if (StringUtils.isNotBlank(value)) {
+            builder.append(" src=\"").append(hosted(value, assetHost))
+              .append('"');
+          }
+          break;
+        case EMBED:
+          if (StringUtils.isNotBlank(value)) {
+            builder.append('\n').append(resolver.getAssetSource(value))
+              .append('\n');
+          }
+          break;
+        default:
+          String name = resolver.resolveProperty(names[i], locale);
+          if (kinds[i] == LINK_ATTRIBUTE && StringUtils.equals(name, "href")) {
+            value = hosted(value, assetHost);
+          }
+          if (StringUtils.isNotBlank(name)) {
+            builder.append(' ').append(name).append("=\"");
+          }
+          builder.append(value).append('"');
+      }
+    }
+    builder.append(literals[kinds.length]);
+  }
+
+  /**
+   * Returns the rendered tag for the locale.
+   *
+   * @param locale The locale to resolve properties in.
+   * @param resolver The resolver for properties and embedded sources.
+   *
+   * @return The rendered tag.
+   */
+  String render(Locale locale, TagResolver resolver) {
+    if (rendered != null) {
+      return rendered;
+    }
+    StringBuilder builder = new StringBuilder(length + 64);
+    try {
+      render(builder, locale, resolver);
+    }
+    catch (IOException e) {
+      // can't happen when appending to a StringBuilder
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof TagTemplate)) {
+      return false;
+    }
+    TagTemplate other = (TagTemplate)obj;
+    return length == other.length && Arrays.equals(kinds, other.kinds)
+      && Arrays.equals(literals, other.literals)
+      && Arrays.equals(names, other.names)
+      && Arrays.equals(values, other.values);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(literals) + Arrays.hashCode(values);
+  }
+}
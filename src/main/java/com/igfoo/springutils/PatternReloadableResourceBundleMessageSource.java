@@ -1,7 +1,12 @@
 package com.igfoo.springutils;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
@@ -14,6 +19,10 @@ import org.springframework.core.io.Resource;
  * An extension to the ReloadableResourceBundleMessageSource class that allows
  * specifying the bundles using a pattern.  This allows us to use the same 
  * convention for resource bundles, where new bundles are automatically added.
+ * 
+ * <p>The message source also counts bundle reloads, files that were loaded
+ * before and have changed, allowing callers that cache resolved messages to
+ * know when to clear their caches.</p>
  */
 public class PatternReloadableResourceBundleMessageSource
   extends ReloadableResourceBundleMessageSource {
@@ -21,6 +30,39 @@ public class PatternReloadableResourceBundleMessageSource
   private final static Logger LOG = LoggerFactory
     .getLogger(PatternReloadableResourceBundleMessageSource.class);
 
+  private final Set<String> loadedFiles = Collections
+    .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicLong reloadCount = new AtomicLong();
+
+  @Override
+  protected Properties loadProperties(Resource resource, String filename)
+    throws IOException {
+
+    // the first load of a file isn't a reload, it can't change any message
+    // that was resolved before
+    Properties props = super.loadProperties(resource, filename);
+    if (!loadedFiles.add(filename)) {
+      reloadCount.incrementAndGet();
+      LOG.info("Reloaded resource bundle: " + filename);
+    }
+    return props;
+  }
+
+  @Override
+  public void clearCache() {
+    super.clearCache();
+    reloadCount.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of times a bundle file has been reloaded or the cache
+   * has been cleared. The count changes whenever resolved messages could have
+   * changed.
+   */
+  public long getReloadCount() {
+    return reloadCount.get();
+  }
+
   public void setResources(Resource[] resources) {
 
     Set<String> bundleSet = new LinkedHashSet<String>();
@@ -0,0 +1,136 @@
+package com.igfoo.fooglue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+
+public class TestFooGlueAssetServlet {
+
+  private static final String HASH = "900150983cd24fb0d6963f7d28e17f72";
+
+  private File cacheDir;
+  private FooGlueAssetServlet servlet;
+  private String script = StringUtils.repeat("var cached = 'cached';\n", 100);
+
+  @Before
+  public void setup()
+    throws Exception {
+
+    // setup a cache directory with a fingerprinted script and a manifest
+    cacheDir = new File(System.getProperty("java.io.tmpdir"),
+      "_fg_test_servlet_" + System.nanoTime());
+    FileUtils.writeStringToFile(new File(cacheDir, "js/app-" + HASH + ".js"),
+      script);
+    FileUtils.writeStringToFile(new File(cacheDir, "_fg_manifest_.json"), "{}");
+
+    MockServletConfig config = new MockServletConfig();
+    config.addInitParameter("cacheDir", cacheDir.getPath());
+    servlet = new FooGlueAssetServlet();
+    servlet.init(config);
+  }
+
+  @After
+  public void teardown() {
+    FileUtils.deleteQuietly(cacheDir);
+  }
+
+  private MockHttpServletResponse get(String path, String... headers)
+    throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+    request.setPathInfo(path);
+    for (int i = 0; i < headers.length; i += 2) {
+      request.addHeader(headers[i], headers[i + 1]);
+    }
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    servlet.service(request, response);
+    return response;
+  }
+
+  @Test
+  public void testServeAsset()
+    throws Exception {
+
+    // validate fingerprinted files are cached far into the future
+    MockHttpServletResponse response = get("/js/app-" + HASH + ".js");
+    Assert.assertEquals(200, response.getStatus());
+    Assert.assertEquals(script, response.getContentAsString());
+    Assert.assertEquals("\"" + HASH + "\"", response.getHeader("ETag"));
+    Assert.assertTrue(((String)response.getHeader("Cache-Control"))
+      .contains("max-age=31536000"));
+
+    // validate matching etags are not modified
+    response = get("/js/app-" + HASH + ".js", "If-None-Match", "\"" + HASH
+      + "\"");
+    Assert.assertEquals(304, response.getStatus());
+    Assert.assertEquals(0, response.getContentAsByteArray().length);
+
+    // validate ranges are sent partially
+    response = get("/js/app-" + HASH + ".js", "Range", "bytes=4-9");
+    Assert.assertEquals(206, response.getStatus());
+    Assert.assertEquals("cached", response.getContentAsString());
+    Assert.assertEquals("bytes 4-9/" + script.length(),
+      response.getHeader("Content-Range"));
+    response = get("/js/app-" + HASH + ".js", "Range", "bytes=9999-");
+    Assert.assertEquals(416, response.getStatus());
+
+    // validate files other than assets, or outside the cache, aren't served
+    Assert.assertEquals(404, get("/_fg_manifest_.json").getStatus());
+    Assert.assertEquals(404, get("/../" + cacheDir.getName() + "/js/app-"
+      + HASH + ".js.lock").getStatus());
+    Assert.assertEquals(404, get("/js/missing.js").getStatus());
+  }
+
+  @Test
+  public void testServeGzip()
+    throws Exception {
+
+    // validate the gzipped copy is only sent to clients accepting gzip
+    FileUtils.writeByteArrayToFile(new File(cacheDir, "js/app-" + HASH
+      + ".js.gz"), gzip(script));
+    MockHttpServletResponse response = get("/js/app-" + HASH + ".js",
+      "Accept-Encoding", "gzip, deflate");
+    Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+    Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+    Assert.assertEquals("\"" + HASH + "-gz\"", response.getHeader("ETag"));
+    Assert.assertEquals(script, IOUtils.toString(new GZIPInputStream(
+      new ByteArrayInputStream(response.getContentAsByteArray()))));
+
+    response = get("/js/app-" + HASH + ".js", "Accept-Encoding", "gzip;q=0");
+    Assert.assertNull(response.getHeader("Content-Encoding"));
+    Assert.assertEquals("Accept-Encoding", response.getHeader("Vary"));
+    Assert.assertEquals(script, response.getContentAsString());
+
+    // validate an explicit gzip coding wins over the wildcard
+    response = get("/js/app-" + HASH + ".js", "Accept-Encoding",
+      "*, gzip;q=0");
+    Assert.assertNull(response.getHeader("Content-Encoding"));
+    response = get("/js/app-" + HASH + ".js", "Accept-Encoding",
+      "*;q=0, gzip");
+    Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+    response = get("/js/app-" + HASH + ".js", "Accept-Encoding", "*");
+    Assert.assertEquals("gzip", response.getHeader("Content-Encoding"));
+  }
+
+  private static byte[] gzip(String value)
+    throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    GZIPOutputStream gzipOut = new GZIPOutputStream(baos);
+    gzipOut.write(value.getBytes("UTF-8"));
+    gzipOut.close();
+    return baos.toByteArray();
+  }
+}
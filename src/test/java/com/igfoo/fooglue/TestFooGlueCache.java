@@ -0,0 +1,288 @@
+package com.igfoo.fooglue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+public class TestFooGlueCache {
+
+  @Test
+  public void testGetAndPut() {
+
+    FooGlueCache<String, String> cache = new FooGlueCache<String, String>(10);
+    Assert.assertNull(cache.get("one"));
+    Assert.assertTrue(cache.put("one", "1"));
+    Assert.assertEquals("1", cache.get("one"));
+
+    // validate the statistics
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+    Assert.assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testBoundedSize() {
+
+    FooGlueCache<String, String> cache = new FooGlueCache<String, String>(10);
+    for (int i = 0; i < 100; i++) {
+      String key = "key" + i;
+      cache.get(key);
+      cache.put(key, key);
+    }
+
+    // the cache never grows past its maximum size
+    Assert.assertTrue(cache.size() <= 10);
+  }
+
+  @Test
+  public void testConcurrentPuts()
+    throws Exception {
+
+    // many threads putting new keys at once
+    final FooGlueCache<String, String> cache = new FooGlueCache<String, String>(
+      10);
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] putters = new Thread[8];
+    for (int i = 0; i < putters.length; i++) {
+      final int putter = i;
+      putters[i] = new Thread() {
+        public void run() {
+          try {
+            start.await();
+          }
+          catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < 1000; j++) {
+            String key = putter + "-" + j;
+            cache.get(key);
+            cache.put(key, key);
+          }
+        }
+      };
+      putters[i].start();
+    }
+    start.countDown();
+    for (Thread putter : putters) {
+      putter.join();
+    }
+
+    // the cache never grows past its maximum size and every read is counted
+    Assert.assertTrue(cache.size() <= 10);
+    Assert.assertEquals(8000, cache.getHitCount() + cache.getMissCount());
+  }
+
+  @Test
+  public void testFrequentKeysAdmitted() {
+
+    // fill the cache with keys requested once
+    FooGlueCache<String, String> cache = new FooGlueCache<String, String>(10);
+    for (int i = 0; i < 10; i++) {
+      String key = "cold" + i;
+      cache.get(key);
+      cache.put(key, key);
+    }
+
+    // a key requested once is rejected, it isn't more popular, and the oldest
+    // entry goes to the back of the queue
+    cache.get("once");
+    Assert.assertFalse(cache.put("once", "once"));
+
+    // a key requested many times evicts the oldest entry
+    for (int i = 0; i < 5; i++) {
+      cache.get("hot");
+    }
+    Assert.assertTrue(cache.put("hot", "hot"));
+    Assert.assertEquals("hot", cache.get("hot"));
+    Assert.assertNull(cache.get("cold1"));
+    Assert.assertEquals(10, cache.size());
+    Assert.assertEquals(1, cache.getEvictionCount());
+    Assert.assertEquals(1, cache.getRejectionCount());
+  }
+
+  @Test
+  public void testRemoveAndClear() {
+
+    FooGlueCache<String, String> cache = new FooGlueCache<String, String>(10);
+    cache.put("one", "1");
+    cache.put("two", "2");
+    Assert.assertEquals("1", cache.remove("one"));
+    Assert.assertNull(cache.get("one"));
+    cache.clear();
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testRenderIndex() {
+
+    // cache renders for single ids and a fragment covering both ids
+    RenderCache cache = new RenderCache(10);
+    RenderKey one = new RenderKey(FooGlueConstants.TYPE_SCRIPT, "one",
+      Locale.US, true);
+    RenderKey two = new RenderKey(FooGlueConstants.TYPE_SCRIPT, "two",
+      Locale.FRANCE, false);
+    RenderKey both = new RenderKey(FooGlueConstants.TYPE_ALL,
+      Arrays.asList("one", "two"), Locale.US, true);
+    cache.put(one, "1");
+    cache.put(two, "2");
+    cache.put(both, "1,2");
+    Assert.assertEquals(2, cache.getKeys("one").size());
+
+    // removing an id removes exactly the renders containing it
+    Assert.assertEquals(2, cache.removeIds(Arrays.asList("one")));
+    Assert.assertNull(cache.get(one));
+    Assert.assertNull(cache.get(both));
+    Assert.assertEquals("2", cache.get(two));
+    Assert.assertEquals(1, cache.getKeys("two").size());
+  }
+
+  @Test
+  public void testRenderGenerations() {
+
+    // renders read before or during a publish aren't cached
+    RenderCache cache = new RenderCache(10);
+    RenderKey one = new RenderKey(FooGlueConstants.TYPE_SCRIPT, "one",
+      Locale.US, true);
+    long before = cache.getGeneration();
+    cache.beginPublish();
+    long during = cache.getGeneration();
+    Assert.assertFalse(cache.put(one, "old", before));
+    Assert.assertFalse(cache.put(one, "old", during));
+    cache.endPublish();
+    Assert.assertFalse(cache.put(one, "old", before));
+    Assert.assertNull(cache.get(one));
+
+    // renders read after the publish are cached
+    Assert.assertTrue(cache.put(one, "new", cache.getGeneration()));
+    Assert.assertEquals("new", cache.get(one));
+  }
+
+  @Test
+  public void testFingerprints()
+    throws Exception {
+
+    File asset = File.createTempFile("_fg_test_fingerprint_", ".js");
+    try {
+
+      // validate the content hash and that it is remembered
+      FileUtils.writeStringToFile(asset, "abc");
+      FingerprintCache fingerprints = new FingerprintCache();
+      Assert.assertEquals("900150983cd24fb0d6963f7d28e17f72",
+        fingerprints.getHash(asset));
+      Assert.assertEquals(1, fingerprints.size());
+
+      // validate a file with the same size and modified time isn't read again,
+      // even if its content changed
+      long lastModified = asset.lastModified();
+      FileUtils.writeStringToFile(asset, "xyz");
+      asset.setLastModified(lastModified);
+      Assert.assertEquals("900150983cd24fb0d6963f7d28e17f72",
+        fingerprints.getHash(asset));
+
+      // validate a changed modified time or size is hashed again
+      asset.setLastModified(lastModified + 2000);
+      Assert.assertEquals("d16fb36f0911f878998c136191af705e",
+        fingerprints.getHash(asset));
+      FileUtils.writeStringToFile(asset, "abcd");
+      asset.setLastModified(lastModified + 2000);
+      Assert.assertEquals("e2fc714c4727ee9395f324cd2e7f331f",
+        fingerprints.getHash(asset));
+    }
+    finally {
+      FileUtils.deleteQuietly(asset);
+    }
+  }
+
+  @Test
+  public void testCacheFiles()
+    throws Exception {
+
+    File cacheDir = new File(System.getProperty("java.io.tmpdir"),
+      "_fg_test_files_" + System.nanoTime());
+    try {
+
+      // validate files are written and replaced whole, leaving no temp files
+      CacheFiles cacheFiles = new CacheFiles();
+      File cached = new File(cacheDir, "js/one.js");
+      cacheFiles.write(cached, "one".getBytes("UTF-8"));
+      cacheFiles.write(cached, "two".getBytes("UTF-8"));
+      Assert.assertEquals("two", FileUtils.readFileToString(cached));
+      Assert.assertEquals(1, cached.getParentFile().list().length);
+
+      // validate a released lock can be taken again
+      CacheFiles.Lock lock = cacheFiles.lock(cached);
+      lock.release();
+      cacheFiles.lock(cached).release();
+    }
+    finally {
+      FileUtils.deleteQuietly(cacheDir);
+    }
+  }
+
+  @Test
+  public void testConcurrentCacheFiles()
+    throws Exception {
+
+    final File cacheDir = new File(System.getProperty("java.io.tmpdir"),
+      "_fg_test_concurrent_" + System.nanoTime());
+    try {
+
+      // many threads making the same file at once, each with its own content
+      final CacheFiles cacheFiles = new CacheFiles();
+      final File cached = new File(cacheDir, "js/one.js");
+      final AtomicInteger makers = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++) {
+        final String content = StringUtils.repeat(String.valueOf(i), 1 << 20);
+        threads[i] = new Thread() {
+          public void run() {
+            try {
+              start.await();
+              CacheFiles.Lock lock = cacheFiles.lock(cached);
+              try {
+                if (!cached.exists()) {
+                  makers.incrementAndGet();
+                  cacheFiles.write(cached, content.getBytes("UTF-8"));
+                }
+              }
+              finally {
+                lock.release();
+              }
+            }
+            catch (Exception e) {
+              // the file isn't made, failing the test
+            }
+          }
+        };
+        threads[i].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      // validate one thread made the whole file and no temp files are left
+      Assert.assertEquals(1, makers.get());
+      String written = FileUtils.readFileToString(cached, "UTF-8");
+      Assert.assertEquals(1 << 20, written.length());
+      Assert.assertEquals(StringUtils.repeat(written.substring(0, 1), 1 << 20),
+        written);
+      for (String name : cached.getParentFile().list()) {
+        Assert.assertTrue(name, name.equals("one.js")
+          || name.equals("one.js.lock"));
+      }
+    }
+    finally {
+      FileUtils.deleteQuietly(cacheDir);
+    }
+  }
+}
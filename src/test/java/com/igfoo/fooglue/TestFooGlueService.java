@@ -1,16 +1,38 @@
 package com.igfoo.fooglue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import junit.framework.Assert;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import com.igfoo.springutils.PatternReloadableResourceBundleMessageSource;
+
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(locations = {
   "/fooglue/testing-context.xml"
@@ -20,6 +42,10 @@ public class TestFooGlueService {
   @Autowired
   private FooGlueService fooglue;
 
+  // services and temp directories to cleanup after each test
+  private List<FooGlueServiceImpl> services = new ArrayList<FooGlueServiceImpl>();
+  private List<File> tempDirs = new ArrayList<File>();
+
   // script tags
   private String script1 = "<script type=\"text/javascript\" src=\"http://localhost/js/one.js\"></script>";
   private String script2 = "<script type=\"text/javascript\" src=\"http://localhost/js/two.js\"></script>";
@@ -140,4 +166,749 @@ public class TestFooGlueService {
     Assert.assertEquals(titleTag, title2);
   }
 
+  @Test
+  public void testMissingProperty() {
+
+    // missing properties resolve to the original property
+    String titleTag = fooglue.getDynamicTitleTag("[[missing.title]]",
+      Locale.US);
+    Assert.assertEquals("<title>[[missing.title]]</title>", titleTag);
+
+    // existing properties still resolve
+    titleTag = fooglue.getDynamicTitleTag("[[default.title]]", Locale.US);
+    Assert.assertEquals(title1, titleTag);
+  }
+
+  @Test
+  public void testPropertyTemplates() {
+
+    // properties in attribute values are resolved on render
+    Map<String, String> metaAttrs = new LinkedHashMap<String, String>();
+    metaAttrs.put("name", "description");
+    metaAttrs.put("content", "[[testing1.title]]");
+    List<Map<String, String>> metas = new ArrayList<Map<String, String>>();
+    metas.add(metaAttrs);
+    List<String> metaTags = fooglue.getDynamicMetaTags(metas, Locale.US);
+    Assert.assertEquals("<meta name=\"description\" content=\"testing1 title\" />",
+      metaTags.get(0));
+
+    // static link tags get the asset host for local paths
+    List<String> linkTags = fooglue.getDynamicLinkTags(
+      Arrays.asList("/css/one.css"), Locale.US);
+    Assert.assertEquals(link1, linkTags.get(0));
+  }
+
+  @Test
+  public void testCombinedFragment() {
+
+    // get the pre-rendered fragment for all asset types
+    List<String> ids = Arrays.asList("testing1");
+    FooGlueFragment fragment = fooglue.getFragmentForIds(ids, Locale.US, true,
+      FooGlueConstants.TYPE_ALL);
+
+    // validate fragment ordering matches the individual tag methods
+    String expected = title2 + "\n" + meta1 + "\n" + meta2 + "\n" + link1
+      + "\n" + link2 + "\n" + link3 + "\n" + link4 + "\n" + script1 + "\n"
+      + script2 + "\n" + script3 + "\n" + script4 + "\n";
+    Assert.assertEquals(expected, fragment.getContent());
+    Assert.assertEquals(title2, fragment.getTitleTag());
+    Assert.assertTrue(fragment.getScriptTags().size() == 4);
+
+    // validate only the requested types are included
+    fragment = fooglue.getFragmentForIds(ids, Locale.US, true,
+      FooGlueUtils.parseTypes("title,meta"));
+    Assert.assertEquals(title2 + "\n" + meta1 + "\n" + meta2 + "\n",
+      fragment.getContent());
+    Assert.assertTrue(fragment.getScriptTags().isEmpty());
+  }
+
+  @Test
+  public void testRequestContext() {
+
+    // ids are trimmed and deduped in order
+    FooGlueRequestContext context = new FooGlueRequestContext(
+      "testing1, 0,testing1", Locale.US, fooglue);
+    Assert.assertEquals(Arrays.asList("testing1", "0"), context.getIds());
+    Assert.assertTrue(context.isFor("testing1, 0,testing1"));
+
+    // fragments are resolved once per request
+    FooGlueFragment fragment = context.getFragment(true,
+      FooGlueConstants.TYPE_TITLE);
+    Assert.assertEquals(title2 + "\n", fragment.getContent());
+    Assert.assertSame(fragment,
+      context.getFragment(true, FooGlueConstants.TYPE_TITLE));
+  }
+
+  @Test
+  public void testStreamingOutput()
+    throws Exception {
+
+    // streamed tags match the tag lists, each followed by a newline
+    StringBuilder out = new StringBuilder();
+    fooglue.writeTitleTagForId("testing1", Locale.US, true, out);
+    fooglue.writeScriptTagsForId("testing1", Locale.US, true, out);
+    Assert.assertEquals(title2 + "\n" + script1 + "\n" + script2 + "\n"
+      + script3 + "\n" + script4 + "\n", out.toString());
+
+    // streamed dynamic tags match the dynamic tag lists
+    out.setLength(0);
+    List<String> links = Arrays.asList("/css/one.css");
+    fooglue.writeDynamicLinkTags(links, Locale.US, out);
+    Assert.assertEquals(link1 + "\n", out.toString());
+    Assert.assertEquals(link1, fooglue.getDynamicLinkTags(links, Locale.US)
+      .get(0));
+  }
+
+  /**
+   * Writes files into a new temp root directory, removed after the test.
+   * 
+   * @param name The name of the test, part of the directory name.
+   * @param files Pairs of paths relative to the root and their contents.
+   * 
+   * @return The root directory.
+   */
+  private File createRoot(String name, String... files)
+    throws IOException {
+    File rootDir = new File(System.getProperty("java.io.tmpdir"), "_fg_test_"
+      + name + "_" + System.nanoTime());
+    tempDirs.add(rootDir);
+    for (int i = 0; i < files.length; i += 2) {
+      FileUtils.writeStringToFile(new File(rootDir, files[i]), files[i + 1]);
+    }
+    return rootDir;
+  }
+
+  /**
+   * Creates a service for configs in the root directory, caching assets into
+   * a cache directory under the root and not reloading. The service isn't
+   * initialized, so tests can change its settings first, and it is shutdown
+   * after the test.
+   * 
+   * @param rootDir The root directory.
+   * @param configs The config paths relative to the root.
+   * 
+   * @return The service.
+   */
+  private FooGlueServiceImpl createService(File rootDir, String... configs) {
+    Resource[] resources = new Resource[configs.length];
+    for (int i = 0; i < configs.length; i++) {
+      resources[i] = new FileSystemResource(new File(rootDir, configs[i]));
+    }
+    FooGlueServiceImpl service = new FooGlueServiceImpl(rootDir.getPath(),
+      resources);
+    service.setCacheDir(new File(rootDir, "cache").getPath());
+    service.setCacheAssets(true);
+    service.setReloadInterval(0);
+    services.add(service);
+    return service;
+  }
+
+  /**
+   * Creates a service for the classpath test configs, like the autowired
+   * service but caching renders into its own cache directory and not
+   * reloading. The service isn't initialized and is shutdown after the test.
+   * 
+   * @return The service.
+   */
+  private FooGlueServiceImpl createClasspathService()
+    throws IOException {
+    ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+    messageSource.setBasename("fooglue/testing");
+    Resource[] configs = new PathMatchingResourcePatternResolver()
+      .getResources("classpath:/fooglue/configs/**/*.fgc");
+    FooGlueServiceImpl service = new FooGlueServiceImpl(null, configs);
+    service.setMessageSource(messageSource);
+    service.setCacheAssets(true);
+    File cacheDir = new File(System.getProperty("java.io.tmpdir"),
+      "_fg_test_cache_" + System.nanoTime());
+    tempDirs.add(cacheDir);
+    service.setCacheDir(cacheDir.getPath());
+    service.setReloadInterval(0);
+    service.setAssetHost("http://localhost");
+    services.add(service);
+    return service;
+  }
+
+  /**
+   * Returns the file path of the src or href of a tag.
+   */
+  private static File getTagFile(String tag) {
+    String path = StringUtils.substringBetween(tag, "src=\"", "\"");
+    if (path == null) {
+      path = StringUtils.substringBetween(tag, "href=\"", "\"");
+    }
+    return new File(path);
+  }
+
+  /**
+   * Waits up to ten seconds for the render of the types of the id, including
+   * global assets, to change from the old render.
+   * 
+   * @return The changed render, or the old render if it didn't change.
+   */
+  private static String awaitChange(FooGlueServiceImpl service, String id,
+    int types, String old)
+    throws InterruptedException {
+    List<String> ids = Arrays.asList(id);
+    String current = old;
+    for (int i = 0; i < 200 && current.equals(old); i++) {
+      Thread.sleep(50);
+      current = service.getFragmentForIds(ids, Locale.US, true, types)
+        .getContent();
+    }
+    return current;
+  }
+
+  /**
+   * Rewrites a file with a later modified time, so it is seen as changed.
+   */
+  private static void touch(File file, String content)
+    throws IOException {
+    long lastModified = file.lastModified();
+    FileUtils.writeStringToFile(file, content);
+    file.setLastModified(lastModified + 2000);
+  }
+
+  @After
+  public void cleanup() {
+    for (FooGlueServiceImpl service : services) {
+      service.shutdown();
+    }
+    for (File tempDir : tempDirs) {
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  @Test
+  public void testReloadChanges()
+    throws Exception {
+
+    // setup a service watching a single config in its own directory
+    File rootDir = createRoot("reload", "reload.fgc",
+      "{\"id\": [\"reload1\"], \"title\": \"first\"}");
+    File config = new File(rootDir, "reload.fgc");
+    ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+    messageSource.setBasename("fooglue/testing");
+    FooGlueServiceImpl watched = createService(rootDir, "reload.fgc");
+    watched.setMessageSource(messageSource);
+    watched.setReloadInterval(50);
+    watched.setReloadQuietPeriod(100);
+    watched.initialize();
+
+    // validate a changed config is reloaded
+    Assert.assertEquals("<title>first</title>",
+      watched.getTitleTagForId("reload1", Locale.US, false));
+    FileUtils.writeStringToFile(config,
+      "{\"id\": [\"reload1\"], \"title\": \"second\"}");
+    config.setLastModified(config.lastModified() + 2000);
+    String titleTag = null;
+    for (int i = 0; i < 200; i++) {
+      titleTag = watched.getTitleTagForId("reload1", Locale.US, false);
+      if (!"<title>first</title>".equals(titleTag)) {
+        break;
+      }
+      Thread.sleep(50);
+    }
+    Assert.assertEquals("<title>second</title>", titleTag);
+
+    // validate a config that fails to load keeps the current configuration
+    FileUtils.writeStringToFile(config, "{\"id\": [\"reload1\"], \"title\"");
+    config.setLastModified(config.lastModified() + 4000);
+    Thread.sleep(500);
+    Assert.assertEquals("<title>second</title>",
+      watched.getTitleTagForId("reload1", Locale.US, false));
+  }
+
+  @Test
+  public void testReloadMessages()
+    throws Exception {
+
+    // setup a service with a title from a reloadable message bundle
+    File rootDir = createRoot("messages", "messages.fgc",
+      "{\"id\": [\"messages1\"], \"title\": \"[[messages1.title]]\"}",
+      "messages.properties", "messages1.title = first");
+    File messages = new File(rootDir, "messages.properties");
+    PatternReloadableResourceBundleMessageSource messageSource = new PatternReloadableResourceBundleMessageSource();
+    messageSource.setBasename("file:"
+      + new File(rootDir, "messages").getPath());
+    messageSource.setCacheSeconds(0);
+    FooGlueServiceImpl watched = createService(rootDir, "messages.fgc");
+    watched.setMessageSource(messageSource);
+    watched.setReloadInterval(50);
+    watched.setReloadQuietPeriod(100);
+    watched.initialize();
+    Assert.assertEquals("<title>first</title>",
+      watched.getTitleTagForId("messages1", Locale.US, false));
+
+    // validate the reloader replaces the renders of changed messages
+    touch(messages, "messages1.title = second");
+    String titleTag = null;
+    for (int i = 0; i < 200; i++) {
+      titleTag = watched.getTitleTagForId("messages1", Locale.US, false);
+      if (!"<title>first</title>".equals(titleTag)) {
+        break;
+      }
+      Thread.sleep(50);
+    }
+    Assert.assertEquals("<title>second</title>", titleTag);
+  }
+
+  @Test
+  public void testQuietPeriodBatches()
+    throws Exception {
+
+    // setup a service with a quiet period much longer than its interval
+    File rootDir = createRoot("quiet", "quiet.fgc",
+      "{\"id\": [\"quiet1\"], \"scripts\": [\"/js/app.js\"]}", "js/app.js",
+      "var app = 0;");
+    File script = new File(rootDir, "js/app.js");
+    FooGlueServiceImpl watched = createService(rootDir, "quiet.fgc");
+    watched.setReloadInterval(20);
+    watched.setReloadQuietPeriod(1000);
+    watched.initialize();
+    List<String> ids = Arrays.asList("quiet1");
+    String scripts = watched.getFragmentForIds(ids, Locale.US, false,
+      FooGlueConstants.TYPE_SCRIPT).getContent();
+
+    // change the script several times within the quiet period, none of the
+    // changes in between are ever loaded
+    Set<String> seen = new LinkedHashSet<String>();
+    seen.add(scripts);
+    for (int i = 1; i <= 4; i++) {
+      touch(script, "var app = " + i + ";");
+      for (int j = 0; j < 5; j++) {
+        Thread.sleep(20);
+        seen.add(watched.getFragmentForIds(ids, Locale.US, false,
+          FooGlueConstants.TYPE_SCRIPT).getContent());
+      }
+    }
+    String changed = scripts;
+    for (int i = 0; i < 200 && changed.equals(scripts); i++) {
+      Thread.sleep(20);
+      changed = watched.getFragmentForIds(ids, Locale.US, false,
+        FooGlueConstants.TYPE_SCRIPT).getContent();
+      seen.add(changed);
+    }
+
+    // validate the changes were reloaded once, with the last change
+    Assert.assertEquals(2, seen.size());
+    Assert.assertEquals("var app = 4;",
+      FileUtils.readFileToString(getTagFile(changed)));
+  }
+
+  @Test
+  public void testPolledDirs()
+    throws Exception {
+
+    // setup a watching service that polls the script directory instead
+    File rootDir = createRoot("polled", "polled.fgc",
+      "{\"id\": [\"polled1\"], \"scripts\": [\"/js/app.js\"]}", "js/app.js",
+      "var app = 0;");
+    File script = new File(rootDir, "js/app.js");
+    FooGlueServiceImpl watched = createService(rootDir, "polled.fgc");
+    watched.setReloadInterval(50);
+    watched.setReloadQuietPeriod(100);
+    watched.setPolledDirs(new String[] {
+      new File(rootDir, "js").getPath()
+    });
+    watched.initialize();
+    String scripts = watched.getFragmentForIds(Arrays.asList("polled1"),
+      Locale.US, true, FooGlueConstants.TYPE_SCRIPT).getContent();
+
+    // validate the polled script is reloaded
+    touch(script, "var app = 1;");
+    String changed = awaitChange(watched, "polled1",
+      FooGlueConstants.TYPE_SCRIPT, scripts);
+    Assert.assertEquals("var app = 1;",
+      FileUtils.readFileToString(getTagFile(changed)));
+  }
+
+  @Test
+  public void testGlobalReloadKeepsAssets()
+    throws Exception {
+
+    // setup a global config with aliases and an id with a script
+    File rootDir = createRoot("globalreload", "fooglue.fgc",
+      "{\"aliases\": {\"app\": \"/js/app.js\"}, \"title\": \"first\"}",
+      "page.fgc", "{\"id\": [\"page1\"], \"scripts\": [\"{{app}}\"]}",
+      "js/app.js", "var app = 1;");
+    FooGlueServiceImpl watched = createService(rootDir, "fooglue.fgc",
+      "page.fgc");
+    watched.setReloadInterval(50);
+    watched.setReloadQuietPeriod(100);
+    watched.initialize();
+    String scripts = watched.getFragmentForIds(Arrays.asList("page1"),
+      Locale.US, true, FooGlueConstants.TYPE_SCRIPT).getContent();
+    String title = watched.getTitleTagForId("page1", Locale.US, true);
+
+    // validate a global reload reuses the script and still monitors it
+    touch(new File(rootDir, "fooglue.fgc"),
+      "{\"aliases\": {\"app\": \"/js/app.js\"}, \"title\": \"second\"}");
+    Assert.assertFalse(title.equals(awaitChange(watched, "page1",
+      FooGlueConstants.TYPE_TITLE, title + "\n")));
+    Assert.assertEquals(scripts, watched.getFragmentForIds(
+      Arrays.asList("page1"), Locale.US, true, FooGlueConstants.TYPE_SCRIPT)
+      .getContent());
+    touch(new File(rootDir, "js/app.js"), "var app = 2;");
+    String changed = awaitChange(watched, "page1",
+      FooGlueConstants.TYPE_SCRIPT, scripts);
+    Assert.assertFalse(scripts.equals(changed));
+    Assert.assertEquals("var app = 2;",
+      FileUtils.readFileToString(getTagFile(changed)));
+  }
+
+  @Test
+  public void testGlobalAssetChange()
+    throws Exception {
+
+    // setup a global config with an aliased script
+    File rootDir = createRoot("globalasset", "fooglue.fgc",
+      "{\"aliases\": {\"site\": \"/js/site.js\"}, "
+        + "\"scripts\": [\"{{site}}\"]}", "page.fgc",
+      "{\"id\": [\"page1\"], \"title\": \"page\"}", "js/site.js",
+      "var site = 1;");
+    FooGlueServiceImpl watched = createService(rootDir, "fooglue.fgc",
+      "page.fgc");
+    watched.setReloadInterval(50);
+    watched.setReloadQuietPeriod(100);
+    watched.initialize();
+    String scripts = watched.getFragmentForIds(Arrays.asList("page1"),
+      Locale.US, true, FooGlueConstants.TYPE_SCRIPT).getContent();
+
+    // validate a changed global script is cached again under its new hash
+    touch(new File(rootDir, "js/site.js"), "var site = 2;");
+    String changed = awaitChange(watched, "page1",
+      FooGlueConstants.TYPE_SCRIPT, scripts);
+    Assert.assertFalse(scripts.equals(changed));
+    Assert.assertEquals("var site = 2;",
+      FileUtils.readFileToString(getTagFile(changed)));
+  }
+
+  @Test
+  public void testGlobalTitleChange()
+    throws Exception {
+
+    // setup a global config without aliases and an id with a script and a
+    // stylesheet, then remove the cached files
+    File rootDir = createRoot("globaltitle", "fooglue.fgc",
+      "{\"title\": \"first\"}", "page.fgc",
+      "{\"id\": [\"page1\"], \"scripts\": [\"/js/app.js\"], "
+        + "\"links\": [\"/css/app.css\"]}", "js/app.js", "var app = 1;",
+      "css/app.css", "body {color: red;}");
+    FooGlueServiceImpl watched = createService(rootDir, "fooglue.fgc",
+      "page.fgc");
+    watched.setReloadInterval(50);
+    watched.setReloadQuietPeriod(100);
+    watched.initialize();
+    int assetTypes = FooGlueConstants.TYPE_SCRIPT | FooGlueConstants.TYPE_LINK;
+    String assets = watched.getFragmentForIds(Arrays.asList("page1"),
+      Locale.US, true, assetTypes).getContent();
+    String title = watched.getTitleTagForId("page1", Locale.US, true);
+    File cachedScript = getTagFile(watched.getScriptTagsForId("page1",
+      Locale.US, false).get(0));
+    File cachedLink = getTagFile(watched.getLinkTagsForId("page1", Locale.US,
+      false).get(0));
+    Assert.assertTrue(cachedScript.delete() && cachedLink.delete());
+
+    // validate a title only change keeps the script and link renders, without
+    // caching the unchanged sections again
+    touch(new File(rootDir, "fooglue.fgc"), "{\"title\": \"second\"}");
+    Assert.assertFalse(title.equals(awaitChange(watched, "page1",
+      FooGlueConstants.TYPE_TITLE, title + "\n")));
+    Assert.assertEquals(assets, watched.getFragmentForIds(
+      Arrays.asList("page1"), Locale.US, true, assetTypes).getContent());
+    Assert.assertFalse(cachedScript.exists());
+    Assert.assertFalse(cachedLink.exists());
+  }
+
+  @Test
+  public void testBackgroundMinify()
+    throws Exception {
+
+    // setup a minifying service with a single script
+    File rootDir = createRoot("minify", "js/app.js",
+      "function add(first, second) {\n  return first + second;\n}\n",
+      "minify.fgc", "{\"id\": [\"minify1\"], \"scripts\": [\"/js/app.js\"]}");
+    FooGlueServiceImpl minifying = createService(rootDir, "minify.fgc");
+    minifying.setMinifyAssets(true);
+    minifying.setReloadInterval(50);
+    minifying.setReloadQuietPeriod(100);
+    minifying.initialize();
+
+    // validate the original is used until the minified file is ready
+    String scriptTag = minifying.getScriptTagsForId("minify1", Locale.US,
+      false).get(0);
+    Assert.assertTrue(scriptTag.contains("-src.js"));
+    for (int i = 0; i < 200 && scriptTag.contains("-src.js"); i++) {
+      Thread.sleep(50);
+      scriptTag = minifying.getScriptTagsForId("minify1", Locale.US, false)
+        .get(0);
+    }
+    Assert.assertFalse(scriptTag.contains("-src.js"));
+    Assert.assertTrue(FileUtils.readFileToString(getTagFile(scriptTag))
+      .startsWith("function add(b,a){"));
+  }
+
+  @Test
+  public void testKeepCache()
+    throws Exception {
+
+    // setup a caching service with a single script that keeps its cache
+    File rootDir = createRoot("keep", "js/app.js",
+      "function add(first, second) {\n  return first + second;\n}\n",
+      "keep.fgc", "{\"id\": [\"keep1\"], \"scripts\": [\"/js/app.js\"]}");
+    FooGlueServiceImpl keeping = createService(rootDir, "keep.fgc");
+    keeping.setKeepCacheOnShutdown(true);
+
+    // validate the cached file and manifest are kept across a restart
+    keeping.initialize();
+    String scriptTag = keeping.getScriptTagsForId("keep1", Locale.US, false)
+      .get(0);
+    File cached = getTagFile(scriptTag);
+    keeping.shutdown();
+    Assert.assertTrue(cached.exists());
+    Assert.assertTrue(new File(rootDir, "cache/_fg_manifest_.json").exists());
+    keeping.initialize();
+    Assert.assertEquals(scriptTag,
+      keeping.getScriptTagsForId("keep1", Locale.US, false).get(0));
+    keeping.shutdown();
+
+    // validate cached files made with other settings are made again
+    keeping.setMinifyAssets(true);
+    keeping.initialize();
+    Assert.assertTrue(FileUtils.readFileToString(cached).startsWith(
+      "function add(b,a){"));
+  }
+
+  @Test
+  public void testBundleAssets()
+    throws Exception {
+
+    // setup a bundling service with two scripts and a remote script, and
+    // stylesheets in two directories and with an import
+    File rootDir = createRoot("bundle", "js/one.js", "var one = 1",
+      "js/two.js", "var two = 2", "css/one.css", "a {color: red;}",
+      "css/two.css", "b {color: blue;}", "css/three.css",
+      "@import url(one.css);", "css/lib/four.css", "i {color: green;}",
+      "bundle.fgc", "{\"id\": [\"bundle1\"], "
+        + "\"scripts\": [\"/js/one.js\", \"/js/two.js\", "
+        + "\"http://localhost/js/three.js\"], \"links\": [\"/css/one.css\", "
+        + "\"/css/two.css\", \"/css/three.css\", \"/css/lib/four.css\"]}");
+    FooGlueServiceImpl bundling = createService(rootDir, "bundle.fgc");
+    bundling.setBundleAssets(true);
+    bundling.initialize();
+
+    // validate the local scripts are joined in order and the remote isn't
+    List<String> scriptTags = bundling.getScriptTagsForId("bundle1",
+      Locale.US, false);
+    Assert.assertEquals(2, scriptTags.size());
+    Assert.assertTrue(scriptTags.get(0).contains("/js/bundle-"));
+    Assert.assertEquals(script3, scriptTags.get(1));
+    Assert.assertEquals("var one = 1;\nvar two = 2;\n",
+      FileUtils.readFileToString(getTagFile(scriptTags.get(0))));
+
+    // validate only stylesheets from the same directory without imports are
+    // joined
+    List<String> linkTags = bundling.getLinkTagsForId("bundle1", Locale.US,
+      false);
+    Assert.assertEquals(3, linkTags.size());
+    Assert.assertTrue(linkTags.get(0).contains("/css/bundle-"));
+    Assert.assertEquals("a {color: red;}\nb {color: blue;}\n",
+      FileUtils.readFileToString(getTagFile(linkTags.get(0))));
+    Assert.assertTrue(linkTags.get(1).contains("/css/three-"));
+    Assert.assertTrue(linkTags.get(2).contains("/css/lib/four-"));
+  }
+
+  @Test
+  public void testSharedBundles()
+    throws Exception {
+
+    // setup ids that share two libraries, always together and in order, two
+    // more scripts in different orders, and scripts of their own
+    File rootDir = createRoot("shared");
+    String[][] scripts = {
+      {"lib1", "lib2", "page0", "other0", "a", "b"},
+      {"lib1", "lib2", "page1", "other1", "a", "b"},
+      {"lib1", "lib2", "page2", "other2", "b", "a"},
+      {"page3", "lib1", "lib2", "other3"}
+    };
+    StringBuilder entries = new StringBuilder();
+    for (int i = 0; i < scripts.length; i++) {
+      entries.append((i > 0) ? ", " : "").append("{\"id\": [\"shared" + i)
+        .append("\"], \"scripts\": [");
+      for (int j = 0; j < scripts[i].length; j++) {
+        String name = scripts[i][j];
+        FileUtils.writeStringToFile(new File(rootDir, "js/" + name + ".js"),
+          "var " + name);
+        entries.append((j > 0) ? ", " : "").append("\"/js/" + name + ".js\"");
+      }
+      entries.append("]}");
+    }
+    FileUtils.writeStringToFile(new File(rootDir, "shared.fgc"), "["
+      + entries + "]");
+    FooGlueServiceImpl bundling = createService(rootDir, "shared.fgc");
+    bundling.setBundleAssets(true);
+    bundling.setSharedBundleIds(2);
+    bundling.setReloadInterval(50);
+    bundling.setReloadQuietPeriod(100);
+    bundling.initialize();
+
+    // validate every id runs exactly its own scripts in its own order, using
+    // the same bundle of the libraries, and the others apart
+    List<List<String>> tags = new ArrayList<List<String>>();
+    for (int i = 0; i < scripts.length; i++) {
+      List<String> scriptTags = bundling.getScriptTagsForId("shared" + i,
+        Locale.US, false);
+      tags.add(scriptTags);
+      List<String> run = new ArrayList<String>();
+      for (String scriptTag : scriptTags) {
+        for (String statement : StringUtils.split(
+          FileUtils.readFileToString(getTagFile(scriptTag)), ";\n")) {
+          run.add(StringUtils.removeStart(statement, "var "));
+        }
+      }
+      Assert.assertEquals(Arrays.asList(scripts[i]), run);
+    }
+    String libs = tags.get(0).get(0);
+    Assert.assertEquals("var lib1;\nvar lib2;\n",
+      FileUtils.readFileToString(getTagFile(libs)));
+    Assert.assertEquals(Arrays.asList(libs, tags.get(0).get(1)),
+      tags.get(0).subList(0, 2));
+    Assert.assertEquals(libs, tags.get(1).get(0));
+    Assert.assertEquals(libs, tags.get(2).get(0));
+    Assert.assertEquals(libs, tags.get(3).get(1));
+    Assert.assertEquals(tags.get(0).get(2), tags.get(2).get(3));
+    Assert.assertEquals(tags.get(0).get(3), tags.get(2).get(2));
+
+    // validate a changed script only bundles the id using it again
+    String fragment = bundling.getFragmentForIds(Arrays.asList("shared0"),
+      Locale.US, true, FooGlueConstants.TYPE_SCRIPT).getContent();
+    File ownBundle = getTagFile(tags.get(1).get(1));
+    Assert.assertTrue(ownBundle.delete());
+    touch(new File(rootDir, "js/page0.js"), "var page0 = 0");
+    String changed = awaitChange(bundling, "shared0",
+      FooGlueConstants.TYPE_SCRIPT, fragment);
+    Assert.assertFalse(fragment.equals(changed));
+    Assert.assertEquals(tags.get(1), bundling.getScriptTagsForId("shared1",
+      Locale.US, false));
+    Assert.assertFalse(ownBundle.exists());
+  }
+
+  @Test
+  public void testGzipAssets()
+    throws Exception {
+
+    // setup a gzipping service with a large script and a small script
+    String large = StringUtils.repeat("var large = 'large';\n", 100);
+    File rootDir = createRoot("gzip", "js/large.js", large, "js/small.js",
+      "var s", "gzip.fgc", "{\"id\": [\"gzip1\"], "
+        + "\"scripts\": [\"/js/large.js\", \"/js/small.js\"]}");
+    FooGlueServiceImpl gzipping = createService(rootDir, "gzip.fgc");
+    gzipping.setGzipAssets(true);
+    gzipping.initialize();
+
+    // validate only the large script has a smaller gzipped copy
+    List<String> scriptTags = gzipping.getScriptTagsForId("gzip1", Locale.US,
+      false);
+    File largeGzip = new File(getTagFile(scriptTags.get(0)).getPath() + ".gz");
+    File smallGzip = new File(getTagFile(scriptTags.get(1)).getPath() + ".gz");
+    Assert.assertTrue(largeGzip.exists());
+    Assert.assertTrue(largeGzip.length() < large.length());
+    InputStream gzipIn = new GZIPInputStream(new FileInputStream(largeGzip));
+    try {
+      Assert.assertEquals(large, IOUtils.toString(gzipIn));
+    }
+    finally {
+      gzipIn.close();
+    }
+    Assert.assertFalse(smallGzip.exists());
+  }
+
+  @Test
+  public void testParallelLoad()
+    throws Exception {
+
+    // setup configs that each define an id, and all define a shared id
+    File rootDir = createRoot("parallel");
+    String[] configs = new String[8];
+    for (int i = 0; i < configs.length; i++) {
+      configs[i] = "parallel" + i + ".fgc";
+      FileUtils.writeStringToFile(new File(rootDir, configs[i]),
+        "[{\"id\": [\"parallel" + i + "\"], \"title\": \"title" + i
+          + "\"}, {\"id\": [\"shared\"], \"title\": \"shared" + i + "\"}]");
+    }
+    FooGlueServiceImpl parallel = createService(rootDir, configs);
+    parallel.setCacheAssets(false);
+    parallel.setLoadThreads(4);
+    parallel.initialize();
+
+    // validate every config is loaded and the last definition of the shared
+    // id wins, the same as loading them in order
+    for (int i = 0; i < configs.length; i++) {
+      Assert.assertEquals("<title>title" + i + "</title>",
+        parallel.getTitleTagForId("parallel" + i, Locale.US, false));
+    }
+    Assert.assertEquals("<title>shared7</title>",
+      parallel.getTitleTagForId("shared", Locale.US, false));
+  }
+
+  @Test
+  public void testWarmupRenders()
+    throws Exception {
+
+    // setup a caching service that pre-renders for a single locale
+    FooGlueServiceImpl warmed = createClasspathService();
+    warmed.setWarmupLocales(new String[] {"en_US"});
+    warmed.initialize();
+
+    // validate renders are cached before the first request
+    Assert.assertTrue(warmed.getRenderCacheSize() > 0);
+    String titleTag = warmed.getTitleTagForId("testing1", Locale.US, true);
+    Assert.assertEquals(title2, titleTag);
+    Assert.assertEquals(1, warmed.getRenderCacheHitCount());
+    Assert.assertEquals(0, warmed.getRenderCacheMissCount());
+
+    // validate locales that weren't warmed are rendered on request
+    warmed.getTitleTagForId("testing1", Locale.FRANCE, true);
+    Assert.assertEquals(1, warmed.getRenderCacheMissCount());
+  }
+
+  @Test
+  public void testPreEncodedFragments()
+    throws Exception {
+
+    // setup a caching service that pre-encodes fragments
+    FooGlueServiceImpl encoding = createClasspathService();
+    encoding.setPreEncodeFragments(true);
+    encoding.initialize();
+
+    // validate fragments are written as bytes and cached pre-encoded
+    List<String> ids = Arrays.asList("testing1");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    encoding.writeFragmentForIds(ids, Locale.US, true,
+      FooGlueConstants.TYPE_TITLE, bytes);
+    Assert.assertEquals(title2 + "\n", bytes.toString("UTF-8"));
+    Assert.assertTrue(encoding.getFragmentForIds(ids, Locale.US, true,
+      FooGlueConstants.TYPE_TITLE).isEncoded());
+  }
+
+  @Test
+  public void testDynamicRenderCache()
+    throws Exception {
+
+    FooGlueServiceImpl caching = createClasspathService();
+    caching.initialize();
+
+    // validate dynamic renders are cached by content, registered handles
+    // share the cached render with the same content
+    List<Object> links = new ArrayList<Object>();
+    links.add("/css/one.css");
+    Assert.assertEquals(link1, caching.getDynamicLinkTags(links, Locale.US)
+      .get(0));
+    Assert.assertEquals(1, caching.getDynamicCacheSize());
+    links.set(0, caching.registerDynamicLink("/css/one.css"));
+    Assert.assertEquals(link1, caching.getDynamicLinkTags(links, Locale.US)
+      .get(0));
+    Assert.assertEquals(1, caching.getDynamicCacheSize());
+  }
 }